@@ -0,0 +1,54 @@
+#!/bin/bash
+
+# Time the parser over a generated, expression heavy source.
+# The file is passed several times so that one JVM compiles it as a batch and
+# startup is paid once.
+# usage: bench_parser.sh [statements] [copies]
+
+bin=dist/clikec.jar
+stmts=${1:-5000}
+copies=${2:-10}
+src=bench_parser.tmp.crx
+
+echo "generating $stmts statements into $src"
+awk -v n=$stmts 'function expr(d,   k) {
+        if (d == 0 || rand() < 0.2)
+                return leaves[int(rand()*nleaves) + 1];
+        k = rand();
+        if (k < 0.1)
+                return "not " expr(d - 1);
+        if (k < 0.2)
+                return "(" expr(d - 1) ")";
+        return expr(d - 1) " " ops[int(rand()*nops) + 1] " " expr(d - 1);
+}
+BEGIN {
+        nleaves = split("b c 1 2 3 ::f(b,2) a[1]", leaves, " ");
+        nops = split("+ - * / and or", ops, " ");
+        ncmps = split("< > == != <= >=", cmps, " ");
+        srand(11);
+        print "array a : int[4];";
+        print "var b : int;";
+        print "var c : int;";
+        print "func f(x : int, y : int) : int { return x; }";
+        print "func main() : void {";
+        for (i = 0; i < n; i++) {
+                print "  let b = " expr(5) ";";
+                if (i % 5 == 0)
+                        print "  if " expr(3) " " cmps[int(rand()*ncmps) + 1] " " expr(3) " { let c = " expr(3) "; }";
+        }
+        print "}";
+}' > $src
+
+files=""
+for i in $(seq $copies)
+do
+        files="$files $src"
+done
+
+for mode in -parse -ast
+do
+        echo "mode=$mode"
+        time java -jar $bin $mode $files > /dev/null
+done
+
+rm $src
@@ -0,0 +1,30 @@
+#!/bin/bash
+
+# Time the lexical pass of each scanner over a generated, identifier heavy source.
+# usage: bench_scanner.sh [lines]
+
+bin=dist/clikec.jar
+lines=${1:-100000}
+src=bench_scanner.tmp
+
+echo "generating $lines lines into $src"
+awk -v n=$lines 'BEGIN {
+        split("and or not let var array func if else while true false return " \
+              "counter value index arr tmp result a b foo_bar x1 y2 lettuce " \
+              "variable iffy forest wholesome truthy elsewhere", words, " ");
+        srand(3);
+        for (i = 0; i < n; i++) {
+                line = "";
+                for (j = 0; j < 12; j++)
+                        line = line words[int(rand()*length(words)) + 1] " ";
+                print line;
+        }
+}' > $src
+
+for scanner in hand buffered mapped dfa
+do
+        echo "scanner=$scanner"
+        time java -jar $bin -lex -scanner=$scanner $src > /dev/null
+done
+
+rm $src
@@ -0,0 +1,25 @@
+#!/bin/bash
+
+# Compile one file on a running compile server, started with
+#   java -jar dist/clikec.jar [-scanner=...] [-tokens] -server[=port]
+# usage: crux_client.sh [-lex|-parse|-ast|-sem] source-file
+# The port is taken from CRUX_PORT, 7717 by default. The server only answers
+# requests that start with the secret it wrote to ~/.crux-server-PORT. Set
+# CRUX_SECRET_FILE to that file if the JVM's home directory is not $HOME.
+
+port=${CRUX_PORT:-7717}
+mode=-sem
+if [[ $1 == -* ]]
+then
+        mode=$1
+        shift
+fi
+src=$(readlink -f "$1")
+secret=$(cat "${CRUX_SECRET_FILE:-$HOME/.crux-server-$port}") || exit 1
+
+exec 3<>/dev/tcp/127.0.0.1/$port || exit 1
+printf '%s\n%s\n%s\n' "$secret" "$mode" "$src" >&3
+read -r status <&3
+cat <&3
+exec 3<&-
+exit $status
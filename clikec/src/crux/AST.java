@@ -17,12 +17,16 @@
  */
 package crux;
 
+import java.io.IOException;
+import java.io.Writer;
+
 /**
  * @author davis
  */
 public class AST {
         
         private ASTNode m_root = null;
+        private NameTable m_names = new NameTable();
 
         public ASTNode create_root(FilePointer fp) {
                 m_root = new ASTNode(null, fp, 0);
@@ -32,31 +36,29 @@ public class AST {
         public ASTNode get_root() {
                 return m_root;
         }
-        
-        private void print_node(AbstractMetaData meta, int depth, StringBuilder pb) {
-                String node_data = new String();
-                for (int i = 0; i < depth; i++) {
-                        node_data += "  ";
-                }
-                node_data += meta.toString();
-//		System.out.println(node_data);
-                pb.append(node_data).append("\n");
+
+        /**
+         * @param names pool the identifiers of the tree are interned into.
+         */
+        public void set_names(NameTable names) {
+                m_names = names;
         }
 
-        private void to_string(ASTNode node, int depth, StringBuilder pb) {
-                if (node == null)
-                        return;
-                
-                print_node((AbstractMetaData) node.get_element(), depth, pb);
-                for (int i = 0; i <= node.max_id(); i ++) {
-                        to_string((ASTNode) node.get_child(i), depth + 1, pb);
-                }
+        public NameTable names() {
+                return m_names;
         }
         
+        /**
+         * Print the tree a line per node, as the tst_ast expectations are.
+         * @param out where the tree is written; not flushed.
+         * @throws IOException
+         */
+        public void write(Writer out) throws IOException {
+                FlatAST.of(this).write(out);
+        }
+
         @Override
         public String toString() {
-                StringBuilder pb = new StringBuilder();
-                to_string(m_root, 0, pb);
-                return pb.toString();
+                return FlatAST.of(this).toString();
         }
 }
@@ -17,12 +17,18 @@
  */
 package crux;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+
 /**
  * @author davis
  */
 public class ASTNode extends GeneralNode {
         
-        private final FilePointer       m_pos;
+        private FilePointer             m_pos;
 	
 	public ASTNode(ASTNode parent, FilePointer fp, int id) {
 		super(parent, null, id);
@@ -47,15 +53,52 @@ public class ASTNode extends GeneralNode {
 
 	public ASTNode make_child(int id, FilePointer fp) {
                 ASTNode node = new ASTNode(this, fp, id);
-                m_children.put(id, node);
-                m_max_id = Math.max(m_max_id, id);
+                put_child(id, node);
                 return node;
 	}
 
 	public ASTNode set_child(int id, ASTNode child) {
-		m_children.put(id, child);
-                m_max_id = Math.max(m_max_id, id);
+		put_child(id, child);
 		return child;
 	}
+
+	/**
+	 * Move the node under another parent, for a declaration reused by IncrementalParser.
+	 * @param parent new parent.
+	 * @param id id under parent.
+	 */
+	void attach(ASTNode parent, int id) {
+		m_parent = parent;
+		m_id = id;
+		parent.put_child(id, this);
+	}
+
+	/**
+	 * Move every location of the subtree down by a number of lines, for a declaration
+	 * reused by IncrementalParser after lines were inserted or removed above it.
+	 * A node the parser left under two parents is moved once.
+	 * @param lines line offset.
+	 */
+	void shift_lines(int lines) {
+		Set<ASTNode> moved = Collections.newSetFromMap(new IdentityHashMap<>());
+		List<ASTNode> stack = new ArrayList<>();
+		stack.add(this);
+		while (!stack.isEmpty()) {
+			ASTNode node = stack.remove(stack.size() - 1);
+			if (!moved.add(node)) {
+				continue;
+			}
+			node.m_pos = FilePointer.shift_lines(node.m_pos, lines);
+			if (node.m_element != null) {
+				((AbstractMetaData) node.m_element).shift_lines(lines);
+			}
+			for (int i = node.max_id(); i >= 0; i--) {
+				ASTNode child = (ASTNode) node.get_child(i);
+				if (child != null) {
+					stack.add(child);
+				}
+			}
+		}
+	}
 	
 }
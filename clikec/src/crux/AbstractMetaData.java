@@ -55,7 +55,7 @@ public class AbstractMetaData extends SyntacticElement {
         }
         
         private final Type m_type;
-        private final FilePointer m_pos;
+        private FilePointer m_pos;
         private final List<Token> m_toks = new ArrayList<>();
         private IType m_atype;
         
@@ -92,34 +92,55 @@ public class AbstractMetaData extends SyntacticElement {
                 return m_toks;
         }
         
-        @Override
-        public String toString() {
+        public FilePointer get_pos() {
+                return m_pos;
+        }
+
+        /**
+         * Move the location and terminals down by a number of lines.
+         * @param lines line offset.
+         */
+        void shift_lines(int lines) {
+                m_pos = FilePointer.shift_lines(m_pos, lines);
+                for (int i = 0; i < m_toks.size(); i++) {
+                        m_toks.set(i, m_toks.get(i).shift_lines(lines));
+                }
+        }
+        
+        /**
+         * Format a node the way the tst_ast expectations print it.
+         * @param type node type.
+         * @param pos location of the node, or null.
+         * @param toks terminals of the node.
+         * @return the formatted node.
+         */
+        static String to_string(Type type, FilePointer pos, List<Token> toks) {
                 String attri = null;
-                switch (m_type) {
+                switch (type) {
                         case LiteralFloat:
                         case LiteralInt:
                         case AddressOf:
-                                attri = m_toks.get(0).attribute();
+                                attri = toks.get(0).attribute();
                                 break;
 			case LiteralBool:
-				attri = m_toks.get(0).type().toString();
+				attri = toks.get(0).type().toString();
 				break;
 			case Call:
                         case VariableDeclaration:
                         case ArrayDeclaration:
-                                attri = "Symbol(" + m_toks.get(0).attribute() + ")";
+                                attri = "Symbol(" + toks.get(0).attribute() + ")";
                                 break;
                         case FunctionDefinition:
-                                attri = "Symbol(" + m_toks.get(0).attribute() + "), [";
-                                if (m_toks.size() > 1) {
-                                        attri += "Symbol(" + m_toks.get(1).attribute() + ")";
-                                        for (int i = 2; i < m_toks.size(); i ++)
-                                                attri += ", Symbol(" + m_toks.get(i).attribute() + ")";
+                                attri = "Symbol(" + toks.get(0).attribute() + "), [";
+                                if (toks.size() > 1) {
+                                        attri += "Symbol(" + toks.get(1).attribute() + ")";
+                                        for (int i = 2; i < toks.size(); i ++)
+                                                attri += ", Symbol(" + toks.get(i).attribute() + ")";
                                 }
                                 attri += "]";
                                 break;
 			case Comparison:
-				switch (m_toks.get(0).type()) {
+				switch (toks.get(0).type()) {
 					case LESS_THAN:
 						attri = "LT";
 						break;
@@ -141,12 +162,17 @@ public class AbstractMetaData extends SyntacticElement {
 				}
 				break;
                 }
-                String ans = "ast." + m_type.toString();
-                if (m_pos != null)
-                        ans += "(" + (m_pos.line_no() + 1) + "," + m_pos.column() + ")";
+                String ans = "ast." + type.toString();
+                if (pos != null)
+                        ans += "(" + (pos.line_no() + 1) + "," + pos.column() + ")";
                 if (attri != null) {
                         ans += "[" + attri + "]";
                 }
                 return ans;
         }
+
+        @Override
+        public String toString() {
+                return to_string(m_type, m_pos, m_toks);
+        }
 }
@@ -0,0 +1,321 @@
+/*
+ * Copyright (C) 2017 davis
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package crux;
+
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * Perform lexical analysis and generate token.
+ * Same token stream as Scanner, but reads from an ISource (a char array window
+ * by default) with integer cursors instead of marking and resetting a BufferedReader.
+ * @author davis
+ */
+public class BufferedScanner implements ILexer {
+
+        private final ISource           m_src;
+        private final NameTable         m_names;
+
+        // Absolute offset of the next unread character.
+        private int                     m_pos = 0;
+        private final LineIndex         m_lines = new LineIndex();
+        // Reading EOF still advances the column, as FilePointer.next() does.
+        private int                     m_eof_reads = 0;
+        private boolean                 m_retain = false;
+
+        // Extent of the last token, and columns to add to the one of its offset.
+        private int                     m_tok_begin;
+        private int                     m_tok_end;
+        private int                     m_tok_shift;
+        private int                     m_tok_name;
+
+        /**
+         * Construct a BufferedScanner starting at the first-line-first-column location.
+         * @param reader character source.
+         */
+        public BufferedScanner(Reader reader) {
+                this(new SourceWindow(reader), new NameTable());
+        }
+
+        /**
+         * Construct a BufferedScanner over an already opened source.
+         * @param src source text.
+         */
+        public BufferedScanner(ISource src) {
+                this(src, new NameTable());
+        }
+
+        /**
+         * Construct a BufferedScanner that interns identifiers into a shared pool.
+         * @param src source text.
+         * @param names identifier pool of the compilation.
+         */
+        public BufferedScanner(ISource src, NameTable names) {
+                m_src = src;
+                m_names = names;
+        }
+
+        private static boolean is_identifier_start(int c) {
+                return Character.isAlphabetic(c) || c == '_';
+        }
+
+        private static boolean is_identifier_part(int c) {
+                return Character.isAlphabetic(c) || Character.isDigit(c) || c == '_';
+        }
+
+        private int skip_digits(int p) throws IOException {
+                while (Character.isDigit(m_src.at(p))) {
+                        p++;
+                }
+                return p;
+        }
+
+        /**
+         * Skip blanks and comments, leaving m_pos at the first character of the next token.
+         */
+        private void skip_blanks() throws IOException {
+                while (true) {
+                        int c = m_src.at(m_pos);
+                        int p;
+                        switch (c) {
+                                case Character.SPACE_SEPARATOR:
+                                case Character.LINE_SEPARATOR:
+                                case '\t':
+                                case ' ':
+                                        m_pos = m_src.skip_spaces(m_pos + 1);
+                                        break;
+                                case '\n':
+                                        m_pos++;
+                                        m_lines.add_line(m_pos);
+                                        break;
+                                case '/':
+                                        if (m_src.at(m_pos + 1) != '/') {
+                                                return;
+                                        }
+                                        // Comment runs up to, but excluding, the newline. Like Scanner,
+                                        // an empty comment backs up so that its second slash is a DIV.
+                                        p = m_src.find_newline(m_pos + 2);
+                                        if (p == m_pos + 2) {
+                                                p = m_pos + 1;
+                                        }
+                                        m_pos = p;
+                                        break;
+                                default:
+                                        return;
+                        }
+                }
+        }
+
+        private Token.Lexeme match_pair(int next, Token.Lexeme single, Token.Lexeme pair) throws IOException {
+                return m_src.at(m_pos + 1) == next ? pair : single;
+        }
+
+        @Override
+        public Token.Lexeme lex_next() throws IOException {
+                skip_blanks();
+                if (!m_retain) {
+                        m_src.release(m_pos);
+                }
+
+                int begin = m_pos;
+                int c = m_src.at(begin);
+                int end = begin + 1;
+                Token.Lexeme type;
+
+                m_tok_begin = begin;
+                m_tok_shift = 0;
+                m_tok_name = NameTable.NONE;
+
+                switch (c) {
+                        case -1:
+                                m_tok_shift = m_eof_reads++;
+                                m_tok_end = begin;
+                                return Token.Lexeme.EOF;
+                        case '(':
+                                type = Token.Lexeme.OPEN_PAREN;
+                                break;
+                        case ')':
+                                type = Token.Lexeme.CLOSE_PAREN;
+                                break;
+                        case '{':
+                                type = Token.Lexeme.OPEN_BRACE;
+                                break;
+                        case '}':
+                                type = Token.Lexeme.CLOSE_BRACE;
+                                break;
+                        case '[':
+                                type = Token.Lexeme.OPEN_BRACKET;
+                                break;
+                        case ']':
+                                type = Token.Lexeme.CLOSE_BRACKET;
+                                break;
+                        case '+':
+                                type = Token.Lexeme.ADD;
+                                break;
+                        case '-':
+                                type = Token.Lexeme.SUB;
+                                break;
+                        case '*':
+                                type = Token.Lexeme.MUL;
+                                break;
+                        case '/':
+                                type = Token.Lexeme.DIV;
+                                break;
+                        case ',':
+                                type = Token.Lexeme.COMMA;
+                                break;
+                        case ';':
+                                type = Token.Lexeme.SEMICOLON;
+                                break;
+                        case '<':
+                                type = match_pair('=', Token.Lexeme.LESS_THAN, Token.Lexeme.LESSER_EQUAL);
+                                break;
+                        case '>':
+                                type = match_pair('=', Token.Lexeme.GREATER_THAN, Token.Lexeme.GREATER_EQUAL);
+                                break;
+                        case '=':
+                                type = match_pair('=', Token.Lexeme.ASSIGN, Token.Lexeme.EQUAL);
+                                break;
+                        case ':':
+                                type = match_pair(':', Token.Lexeme.COLON, Token.Lexeme.CALL);
+                                break;
+                        case '!':
+                                type = match_pair('=', Token.Lexeme.ERROR, Token.Lexeme.NOT_EQUAL);
+                                break;
+                        default:
+                                if (is_identifier_start(c)) {
+                                        while (is_identifier_part(m_src.at(end))) {
+                                                end++;
+                                        }
+                                        type = Keywords.lookup(m_src, begin, end);
+                                        if (type == Token.Lexeme.IDENTIFIER) {
+                                                m_tok_name = m_names.intern(m_src, begin, end);
+                                        }
+                                } else if (Character.isDigit(c)) {
+                                        end = skip_digits(end);
+                                        if (m_src.at(end) == '.') {
+                                                end = skip_digits(end + 1);
+                                                type = Token.Lexeme.FLOAT;
+                                        } else {
+                                                type = Token.Lexeme.INTEGER;
+                                        }
+                                } else {
+                                        type = Token.Lexeme.ERROR;
+                                }
+                                break;
+                }
+
+                switch (type) {
+                        case LESSER_EQUAL:
+                        case GREATER_EQUAL:
+                        case EQUAL:
+                        case NOT_EQUAL:
+                        case CALL:
+                                end++;
+                                break;
+                }
+
+                m_pos = end;
+                m_tok_end = end;
+                return type;
+        }
+
+        @Override
+        public int begin() {
+                return m_tok_begin;
+        }
+
+        @Override
+        public int end() {
+                return m_tok_end;
+        }
+
+        @Override
+        public int line_no() {
+                return m_lines.line_of(m_tok_begin);
+        }
+
+        @Override
+        public int column() {
+                return m_lines.column_of(m_tok_begin) + m_tok_shift;
+        }
+
+        @Override
+        public int name_id() {
+                return m_tok_name;
+        }
+
+        @Override
+        public LineIndex lines() {
+                return m_lines;
+        }
+
+        @Override
+        public NameTable names() {
+                return m_names;
+        }
+
+        @Override
+        public ISource retain_source() {
+                m_retain = true;
+                return m_src;
+        }
+
+        /**
+         * @param src source the token was scanned from.
+         * @param type lexeme type.
+         * @param begin absolute offset of the first character.
+         * @param end absolute offset past the last character.
+         * @return the attribute Scanner would attach to the token.
+         * @throws IOException
+         */
+        static String attribute(ISource src, Token.Lexeme type, int begin, int end) throws IOException {
+                switch (type) {
+                        case IDENTIFIER:
+                        case INTEGER:
+                        case FLOAT:
+                                return src.slice(begin, end);
+                        case ERROR:
+                                return "Unexpected character: " + (char) src.at(begin);
+                        default:
+                                return "";
+                }
+        }
+
+        /**
+         * Scan next token.
+         * @return
+         * @throws IOException
+         */
+        @Override
+        public Token scan_next() throws IOException {
+                Token.Lexeme type = lex_next();
+                if (type == Token.Lexeme.EOF) {
+                        return new Token(type, new FilePointer(line_no(), column()), "");
+                }
+                String attri = m_tok_name != NameTable.NONE
+                        ? m_names.name(m_tok_name)
+                        : attribute(m_src, type, m_tok_begin, m_tok_end);
+                return new Token(type, m_lines, m_tok_begin, attri, m_tok_name);
+        }
+
+        @Override
+        public void close() throws IOException {
+                m_src.close();
+        }
+}
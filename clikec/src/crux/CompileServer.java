@@ -0,0 +1,196 @@
+/*
+ * Copyright (C) 2017 davis
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package crux;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * A long lived compiler process, so that JVM startup and JIT warm-up are paid once
+ * instead of per file. Built-in symbols are likewise shared by every request.
+ * A client connects over loopback TCP and sends three lines: the secret, the mode
+ * (-lex, -parse, -ast or -sem) and the absolute path of the source file. The server
+ * answers with a status line, the exit status of a direct run on the file (0, -2 if
+ * it could not be read or -3 if it has syntax errors), followed by the output of the
+ * compilation, and closes the connection. See crux_client.sh.
+ * <p>
+ * The port is open to every local user, and the server reads any file its own user
+ * can. A request is therefore only served if it starts with the secret, which is
+ * generated at startup and written to ~/.crux-server-PORT, readable by the owner
+ * only. Without POSIX file permissions to protect it the server refuses to start.
+ * A request with a wrong secret or an unknown mode is answered with -1. A client
+ * gets REQUEST_TIMEOUT milliseconds to send its request, and lines longer than
+ * MAX_LINE bytes drop the connection, so that no client holds a worker or fills
+ * the heap.
+ * @author davis
+ */
+public class CompileServer {
+
+        public static final int         DEFAULT_PORT = 7717;
+        public static final int         REQUEST_TIMEOUT = 10000;
+        public static final int         MAX_LINE = 4096;
+
+        private final ServerSocket      m_socket;
+        private final ExecutorService   m_workers;
+        private final byte[]            m_secret;
+        private final Path              m_secret_file;
+
+        /**
+         * @param port loopback port to listen on.
+         * @param jobs number of requests compiled at once.
+         * @throws IOException
+         */
+        public CompileServer(int port, int jobs) throws IOException {
+                m_socket = new ServerSocket(port, 50, InetAddress.getLoopbackAddress());
+                try {
+                        m_secret = new_secret();
+                        m_secret_file = secret_file(port());
+                        write_secret(m_secret_file, m_secret);
+                } catch (IOException | UnsupportedOperationException e) {
+                        m_socket.close();
+                        throw new IOException("Cannot write the server secret; not serving.", e);
+                }
+                m_workers = Executors.newFixedThreadPool(jobs);
+        }
+
+        /**
+         * @param port port of the server.
+         * @return where the server listening on port keeps its secret.
+         */
+        public static Path secret_file(int port) {
+                return Paths.get(System.getProperty("user.home"), ".crux-server-" + port);
+        }
+
+        private static byte[] new_secret() {
+                byte[] raw = new byte[16];
+                new SecureRandom().nextBytes(raw);
+                StringBuilder sb = new StringBuilder();
+                for (byte b : raw) {
+                        sb.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+                }
+                return sb.toString().getBytes(StandardCharsets.UTF_8);
+        }
+
+        // The file is created with its final permissions, so the secret is never
+        // readable by others, not even briefly.
+        private static void write_secret(Path file, byte[] secret) throws IOException {
+                Files.deleteIfExists(file);
+                Files.createFile(file, PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-------")));
+                Files.write(file, secret);
+                file.toFile().deleteOnExit();
+        }
+
+        /**
+         * @return the port actually listened on.
+         */
+        public int port() {
+                return m_socket.getLocalPort();
+        }
+
+        /**
+         * Serve requests until the socket is closed.
+         * @throws IOException
+         */
+        public void serve() throws IOException {
+                try {
+                        while (!m_socket.isClosed()) {
+                                Socket client = m_socket.accept();
+                                m_workers.execute(() -> handle(client));
+                        }
+                } finally {
+                        m_workers.shutdown();
+                }
+        }
+
+        /**
+         * Stop accepting requests.
+         * @throws IOException
+         */
+        public void close() throws IOException {
+                m_socket.close();
+                Files.deleteIfExists(m_secret_file);
+        }
+
+        private void handle(Socket client) {
+                try (Socket s = client) {
+                        s.setSoTimeout(REQUEST_TIMEOUT);
+                        InputStream in = new BufferedInputStream(s.getInputStream());
+                        OutputStream out = s.getOutputStream();
+                        // MessageDigest.isEqual takes time set by the length of its second argument, the secret.
+                        byte[] secret = read_line(in);
+                        if (secret == null || !MessageDigest.isEqual(secret, m_secret)) {
+                                out.write("-1\nWrong secret.\n".getBytes(StandardCharsets.UTF_8));
+                                return;
+                        }
+                        byte[] mode = read_line(in);
+                        byte[] src = read_line(in);
+                        if (mode == null || src == null) {
+                                out.write("-2\nExpected a mode and a source file.\n".getBytes(StandardCharsets.UTF_8));
+                                return;
+                        }
+                        String m = new String(mode, StandardCharsets.UTF_8);
+                        if (!Compiler.is_mode(m)) {
+                                out.write(("-1\nUnknown mode: " + m + "\n").getBytes(StandardCharsets.UTF_8));
+                                return;
+                        }
+                        Compiler.Unit u = Compiler.compile_unit(m, new String(src, StandardCharsets.UTF_8));
+                        out.write((u.status() + "\n").getBytes(StandardCharsets.UTF_8));
+                        out.write(u.output());
+                        out.flush();
+                } catch (IOException e) {
+                        // The client went away, timed out or sent too long a line; nothing to report to.
+                }
+        }
+
+        /**
+         * @param in request stream.
+         * @return the next line without its terminator, or null at the end of the stream.
+         * @throws IOException if the line is longer than MAX_LINE bytes.
+         */
+        private static byte[] read_line(InputStream in) throws IOException {
+                ByteArrayOutputStream line = new ByteArrayOutputStream();
+                for (int c = in.read(); c != '\n'; c = in.read()) {
+                        if (c == -1) {
+                                return line.size() == 0 ? null : line.toByteArray();
+                        }
+                        if (line.size() == MAX_LINE) {
+                                throw new IOException("Request line too long.");
+                        }
+                        line.write(c);
+                }
+                int n = line.size();
+                byte[] b = line.toByteArray();
+                return n > 0 && b[n - 1] == '\r' ? Arrays.copyOf(b, n - 1) : b;
+        }
+}
@@ -18,8 +18,25 @@
 package crux;
 
 import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 /**
  * Main class.
@@ -27,99 +44,495 @@ import java.io.IOException;
  */
 public class Compiler {
 
-        public static void run_lexical_test(String[] args) throws Exception {
-                String src = args[0];
-                IScanner s = null;
+        private static String s_scanner = "hand";
+        private static boolean s_token_buffer = false;
+        private static int s_jobs = Runtime.getRuntime().availableProcessors();
+        private static boolean s_split = false;
+        private static ForkJoinPool s_split_pool = null;
+        private static String s_edits = null;
 
-                try {
-                        s = new Scanner(new BufferedReader(new FileReader(src)));
-                } catch (IOException e) {
-                        System.err.println("Error accessing the source file: \"" + src + "\"");
-                        System.exit(-2);
+        private static final List<String> MODES = Arrays.asList("-lex", "-parse", "-ast", "-sem");
+        private static final String USAGE =
+                "usage: [-lex | -parse | -ast | -sem] [-scanner=hand|buffered|mapped|dfa] [-tokens] [-split] [-jobs=n] source...\n"
+                + "       -ast -edits=file source\n"
+                + "       [-scanner=...] [-tokens] [-split] [-jobs=n] -server[=port]";
+
+        /**
+         * The source file could not be opened or read.
+         */
+        private static class SourceAccessException extends IOException {
+
+                private static final long serialVersionUID = 1L;
+
+                public SourceAccessException(String src, IOException cause) {
+                        super("Error accessing the source file: \"" + src + "\"", cause);
                 }
+        }
+
+        /**
+         * The source file has syntax errors, which have been printed.
+         */
+        private static class SyntaxErrorsException extends Exception {
+
+                private static final long serialVersionUID = 1L;
 
-                Token t = s.scan_next();
-                while (!t.is_eof()) {
-                        System.out.println(t);
-                        t = s.scan_next();
+                public SyntaxErrorsException(String src) {
+                        super("Error parsing the source file: \"" + src + "\"");
+                }
+        }
+
+        /**
+         * Output of one file of a batch.
+         */
+        static class Unit {
+
+                private final ByteArrayOutputStream     m_out = new ByteArrayOutputStream();
+                private int                             m_status = 0;
+
+                /**
+                 * @return what the compilation printed.
+                 */
+                byte[] output() {
+                        return m_out.toByteArray();
+                }
+
+                /**
+                 * @return what a single file run exits with: 0, -2 if the source could
+                 *         not be read or -3 if it has syntax errors.
+                 */
+                int status() {
+                        return m_status;
+                }
+        }
+
+        /**
+         * Open the source file with the scanner implementation selected on the command line.
+         * @param src path to the source file.
+         * @return a scanner positioned at the start of src, to be closed by the caller.
+         * @throws IOException
+         */
+        public static IScanner open_scanner(String src) throws IOException {
+                switch (s_scanner) {
+                        case "buffered":
+                                return new BufferedScanner(new FileReader(src));
+                        case "mapped":
+                                return new BufferedScanner(MappedSource.open(src));
+                        case "dfa":
+                                return DfaScanner.open(src, new NameTable());
+                        default:
+                                return new Scanner(new BufferedReader(new FileReader(src)));
+                }
+        }
+
+        /**
+         * Scan the whole source file into a packed token buffer.
+         * The hand written scanner has no such mode, so it is replaced by the mapped one.
+         * @param src path to the source file.
+         * @return every token of src.
+         * @throws IOException
+         */
+        public static TokenBuffer open_token_buffer(String src) throws IOException {
+                try (ILexer s = open_lexer(src)) {
+                        return TokenBuffer.scan(s);
                 }
-                System.out.println(t);
         }
-        
-        public static void run_syntactical_test(String[] args) throws Exception {
-                String src = args[0];
-                IScanner s = null;
 
+        private static ILexer open_lexer(String src) throws IOException {
+                if ("buffered".equals(s_scanner)) {
+                        return new BufferedScanner(new FileReader(src));
+                } else if ("dfa".equals(s_scanner)) {
+                        return DfaScanner.open(src, new NameTable());
+                } else {
+                        return new BufferedScanner(MappedSource.open(src));
+                }
+        }
+
+        private static IScanner source_scanner(String src) throws SourceAccessException {
                 try {
-                        s = new Scanner(new BufferedReader(new FileReader(src)));
+                        return open_scanner(src);
                 } catch (IOException e) {
-                        System.err.println("Error accessing the source file: \"" + src + "\"");
-                        System.exit(-2);
+                        throw new SourceAccessException(src, e);
                 }
-                
-                IParser p = new ParserRecursiveDescent();
-                ParseTree pt = new ParseTree();
-                AST ast = new AST();
-                p.parse(s, ast, pt);
-                System.out.println(pt.toString());
         }
-        
-        public static void run_semantics_test(String[] args) throws Exception {
-                String src = args[0];
-                IScanner s = null;
 
+        private static TokenBuffer source_tokens(String src) throws SourceAccessException {
                 try {
-                        s = new Scanner(new BufferedReader(new FileReader(src)));
+                        return open_token_buffer(src);
                 } catch (IOException e) {
-                        System.err.println("Error accessing the source file: \"" + src + "\"");
-                        System.exit(-2);
+                        throw new SourceAccessException(src, e);
                 }
-                
-                IParser p = new ParserRecursiveDescent();
+        }
+
+        /**
+         * @param src path to the source file.
+         * @param ast receives the abstract syntax tree.
+         * @param pt receives the parse tree, or null to build the AST only.
+         * @param out where syntax errors are printed.
+         * @throws Exception SyntaxErrorsException if src has syntax errors.
+         */
+        private static void parse(String src, AST ast, ParseTree pt, PrintStream out) throws Exception {
+                IParser p = s_split ? new ParallelParser(s_split_pool) : new ParserRecursiveDescent();
+                try {
+                        if (s_token_buffer) {
+                                p.parse(source_tokens(src), ast, pt);
+                        } else {
+                                try (IScanner s = source_scanner(src)) {
+                                        p.parse(s, ast, pt);
+                                }
+                        }
+                } catch (ErrorReport err) {
+                        out.println("Error parsing file.");
+                        out.println(err.toString());
+                        throw new SyntaxErrorsException(src);
+                }
+        }
+
+        /**
+         * @param src path to the source file.
+         * @param out where syntax errors are printed.
+         * @return the abstract syntax tree, flattened; the tree the parser built is garbage
+         *         once this returns.
+         * @throws Exception
+         */
+        private static FlatAST parse_flat(String src, PrintStream out) throws Exception {
+                AST ast = new AST();
+                parse(src, ast, null, out);
+                return FlatAST.of(ast);
+        }
+
+        public static void run_lexical_test(String src, PrintStream out) throws Exception {
+                if (s_token_buffer) {
+                        TokenBuffer toks = source_tokens(src);
+                        for (int i = 0; i < toks.size(); i ++) {
+                                out.println(toks.token(i));
+                        }
+                        return;
+                }
+
+                try (IScanner s = source_scanner(src)) {
+                        Token t = s.scan_next();
+                        while (!t.is_eof()) {
+                                out.println(t);
+                                t = s.scan_next();
+                        }
+                        out.println(t);
+                }
+        }
+        
+        public static void run_syntactical_test(String src, PrintStream out) throws Exception {
                 ParseTree pt = new ParseTree();
                 AST ast = new AST();
-                p.parse(s, ast, pt);
+                parse(src, ast, pt, out);
+                Writer w = tree_writer(out);
+                try {
+                        pt.write(w);
+                        w.write(System.lineSeparator());
+                } finally {
+                        w.flush();
+                }
+        }
+        
+        public static void run_semantics_test(String src, PrintStream out) throws Exception {
+                // Checked on the tree the parser built: flattening it first costs more
+                // time and memory than the flat traversals save.
+                AST ast = new AST();
+                parse(src, ast, null, out);
                 
-                ISemanticsAnalyzer sa = new SemanticsAnalyzer();
+                ISemanticsAnalyzer sa = new SemanticsAnalyzer(s_split ? s_split_pool : null);
                 try {
                         sa.analyze(ast);
                         // System.out.println("Crux program successfully parsed.");
-                        System.out.println("Crux Program has no type errors.");
+                        out.println("Crux Program has no type errors.");
                 } catch (ErrorReport err) {
                         //System.out.println("Error parsing file.");
-                        System.out.println("Error type-checking file.");
-                        System.out.println(err.toString());
+                        out.println("Error type-checking file.");
+                        out.println(err.toString());
                 }
         }
         
-        public static void run_semantics_ast_test(String[] args) throws Exception {
-                String src = args[0];
-                IScanner s = null;
+        public static void run_semantics_ast_test(String src, PrintStream out) throws Exception {
+                FlatAST ast = s_edits == null ? parse_flat(src, out) : FlatAST.of(parse_edited(src, s_edits, out));
+                Writer w = tree_writer(out);
+                try {
+                        ast.write(w);
+                        w.write(System.lineSeparator());
+                } finally {
+                        w.flush();
+                }
+        }
 
+        /**
+         * Parse src with an IncrementalParser, then apply the edits of a script to it.
+         * Each line of the script is an edit: the offset, the number of characters
+         * removed there and the text inserted, separated by single spaces, with \n,
+         * \t and \\ standing for a newline, a tab and a backslash.
+         * @param src path to the source file.
+         * @param edits path to the edit script.
+         * @param out where syntax errors of the edited source are printed.
+         * @return the tree of the edited source.
+         * @throws Exception SyntaxErrorsException if the edited source has syntax errors.
+         */
+        private static AST parse_edited(String src, String edits, PrintStream out) throws Exception {
+                String text;
+                List<String> script;
                 try {
-                        s = new Scanner(new BufferedReader(new FileReader(src)));
+                        text = new String(Files.readAllBytes(Paths.get(src)), Charset.defaultCharset());
+                        script = Files.readAllLines(Paths.get(edits), Charset.defaultCharset());
                 } catch (IOException e) {
-                        System.err.println("Error accessing the source file: \"" + src + "\"");
+                        throw new SourceAccessException(src, e);
+                }
+                IncrementalParser ip = new IncrementalParser();
+                ErrorReport last = null;
+                try {
+                        ip.parse(text);
+                } catch (ErrorReport err) {
+                        last = err;
+                }
+                for (String line : script) {
+                        if (line.isEmpty()) {
+                                continue;
+                        }
+                        String[] edit = line.split(" ", 3);
+                        last = null;
+                        try {
+                                ip.edit(Integer.parseInt(edit[0]), Integer.parseInt(edit[1]),
+                                        edit.length < 3 ? "" : unescape(edit[2]));
+                        } catch (ErrorReport err) {
+                                last = err;
+                        }
+                }
+                if (last != null) {
+                        out.println("Error parsing file.");
+                        out.println(last.toString());
+                        throw new SyntaxErrorsException(src);
+                }
+                return ip.ast();
+        }
+
+        private static String unescape(String s) {
+                StringBuilder sb = new StringBuilder();
+                for (int i = 0; i < s.length(); i ++) {
+                        char c = s.charAt(i);
+                        if (c == '\\' && i + 1 < s.length()) {
+                                c = s.charAt(++i);
+                                c = c == 'n' ? '\n' : c == 't' ? '\t' : c;
+                        }
+                        sb.append(c);
+                }
+                return sb.toString();
+        }
+
+        // Trees are streamed to out rather than built into one string first; the
+        // output is that of out.println(tree.toString()).
+        private static Writer tree_writer(PrintStream out) {
+                return new BufferedWriter(new OutputStreamWriter(out), 1 << 16);
+        }
+
+        /**
+         * @param mode a command line option.
+         * @return if mode is one of -lex, -parse, -ast and -sem.
+         */
+        static boolean is_mode(String mode) {
+                return MODES.contains(mode);
+        }
+
+        /**
+         * Compile one source file.
+         * @param mode one of -lex, -parse, -ast and -sem.
+         * @param src path to the source file.
+         * @param out where the result is printed.
+         * @throws Exception
+         */
+        public static void compile(String mode, String src, PrintStream out) throws Exception {
+                switch (mode) {
+                        case "-lex":
+                                run_lexical_test(src, out);
+                                break;
+                        case "-parse":
+                                run_syntactical_test(src, out);
+                                break;
+                        case "-ast":
+                                run_semantics_ast_test(src, out);
+                                break;
+                        default:
+                                run_semantics_test(src, out);
+                                break;
+                }
+        }
+
+        private static void run_single(String mode, String src) throws Exception {
+                try {
+                        compile(mode, src, System.out);
+                } catch (SourceAccessException e) {
+                        System.err.println(e.getMessage());
                         System.exit(-2);
+                } catch (SyntaxErrorsException e) {
+                        System.exit(-3);
+                }
+        }
+
+        public static void run_lexical_test(String[] args) throws Exception {
+                run_single("-lex", args[0]);
+        }
+
+        public static void run_syntactical_test(String[] args) throws Exception {
+                run_single("-parse", args[0]);
+        }
+
+        public static void run_semantics_test(String[] args) throws Exception {
+                run_single("-sem", args[0]);
+        }
+
+        public static void run_semantics_ast_test(String[] args) throws Exception {
+                run_single("-ast", args[0]);
+        }
+
+        /**
+         * Compile one source file of a batch or server request into its own buffer.
+         * Errors, including a syntax error, end up in the output.
+         * @param mode one of -lex, -parse, -ast and -sem.
+         * @param src path to the source file.
+         * @return the output.
+         */
+        static Unit compile_unit(String mode, String src) {
+                Unit u = new Unit();
+                PrintStream out = new PrintStream(u.m_out);
+                try {
+                        compile(mode, src, out);
+                } catch (SourceAccessException e) {
+                        out.println(e.getMessage());
+                        u.m_status = -2;
+                } catch (SyntaxErrorsException e) {
+                        // Already printed.
+                        u.m_status = -3;
+                } catch (Exception | StackOverflowError e) {
+                        // Aborts this file only.
+                        out.println(e);
+                }
+                out.flush();
+                return u;
+        }
+
+        /**
+         * Compile many source files on a work stealing pool. Every file is compiled
+         * independently, and the results are printed in input order, each after a
+         * "==> file <==" header.
+         * @param mode one of -lex, -parse, -ast and -sem.
+         * @param srcs paths to the source files.
+         * @param jobs parallelism of the pool.
+         * @param out where the results are printed.
+         * @return if every file could be read.
+         */
+        public static boolean run_batch(String mode, List<String> srcs, int jobs, PrintStream out) {
+                ForkJoinPool pool = new ForkJoinPool(jobs);
+                try {
+                        List<ForkJoinTask<Unit>> units = new ArrayList<>();
+                        for (String src : srcs) {
+                                units.add(pool.submit(() -> compile_unit(mode, src)));
+                        }
+                        boolean readable = true;
+                        for (int i = 0; i < srcs.size(); i ++) {
+                                Unit u = units.get(i).join();
+                                out.println("==> " + srcs.get(i) + " <==");
+                                out.write(u.m_out.toByteArray(), 0, u.m_out.size());
+                                readable &= u.m_status != -2;
+                        }
+                        out.flush();
+                        return readable;
+                } finally {
+                        pool.shutdown();
                 }
-                
-                IParser p = new ParserRecursiveDescent();
-                ParseTree pt = new ParseTree();
-                AST ast = new AST();
-                p.parse(s, ast, pt);
-                
-                System.out.println(ast.toString());
         }
 
         /**
-         * @param args the command line arguments
+         * @param args source files and directories.
+         * @return the files, with each directory replaced by the .crx files below it in name order.
+         * @throws IOException
+         */
+        private static List<String> expand_sources(List<String> args) throws IOException {
+                List<String> srcs = new ArrayList<>();
+                for (String arg : args) {
+                        if (!new File(arg).isDirectory()) {
+                                srcs.add(arg);
+                                continue;
+                        }
+                        try (Stream<Path> paths = Files.walk(Paths.get(arg))) {
+                                srcs.addAll(paths.filter(path -> path.toString().endsWith(".crx"))
+                                                 .filter(path -> Files.isRegularFile(path))
+                                                 .map(Path::toString)
+                                                 .sorted()
+                                                 .collect(Collectors.toList()));
+                        }
+                }
+                return srcs;
+        }
+
+        /**
+         * @param args the command line arguments:
+         *        [-lex | -parse | -ast | -sem] [-scanner=hand|buffered|mapped|dfa] [-tokens] [-split] [-jobs=n] source...
+         *        or -ast -edits=file source
+         *        or [-scanner=...] [-tokens] [-split] [-jobs=n] -server[=port]
+         *        -tokens scans the whole file into a TokenBuffer before parsing.
+         *        -split also parses the top level declarations of a file on n threads, see ParallelParser,
+         *        and checks its function bodies on them, see SemanticsAnalyzer.
+         *        -scanner=dfa is table driven and falls back to mapped for non-ASCII files.
+         *        Several sources, or a directory of .crx files, are compiled as a batch on n threads
+         *        (all processors by default).
+         *        -edits=file parses source incrementally under the edits in file and prints the
+         *        tree of the result, see IncrementalParser.
+         *        -server keeps compiling files sent by clients, see CompileServer.
+         *        Every syntax error of a file is printed; a single file with any exits with -3.
+         *        Any other option prints the usage and exits with -1.
          * @throws java.lang.Exception
          */
         public static void main(String[] args) throws Exception {
-                //run_lexical_test(args);
-                //run_syntactical_test(args);
-                run_semantics_test(args);
-                //run_semantics_ast_test(args);
+                String mode = "-sem";
+                int port = -1;
+                int i = 0;
+                for (; i < args.length && args[i].startsWith("-"); i ++) {
+                        if (args[i].startsWith("-scanner=")) {
+                                s_scanner = args[i].substring("-scanner=".length());
+                        } else if (args[i].equals("-tokens")) {
+                                s_token_buffer = true;
+                        } else if (args[i].equals("-split")) {
+                                s_split = true;
+                                s_token_buffer = true;
+                        } else if (args[i].startsWith("-jobs=")) {
+                                s_jobs = Integer.parseInt(args[i].substring("-jobs=".length()));
+                        } else if (args[i].startsWith("-edits=")) {
+                                s_edits = args[i].substring("-edits=".length());
+                        } else if (args[i].equals("-server")) {
+                                port = CompileServer.DEFAULT_PORT;
+                        } else if (args[i].startsWith("-server=")) {
+                                port = Integer.parseInt(args[i].substring("-server=".length()));
+                        } else if (MODES.contains(args[i])) {
+                                mode = args[i];
+                        } else {
+                                System.err.println("Unknown option: " + args[i]);
+                                System.err.println(USAGE);
+                                System.exit(-1);
+                        }
+                }
+                if (s_edits != null && (!"-ast".equals(mode) || port >= 0 || i != args.length - 1)) {
+                        System.err.println("-edits needs -ast and a single source.");
+                        System.err.println(USAGE);
+                        System.exit(-1);
+                }
+                if (s_split && (s_split_pool == null || s_split_pool.getParallelism() != s_jobs)) {
+                        s_split_pool = new ForkJoinPool(s_jobs);
+                }
+                List<String> files = new ArrayList<>();
+                for (; i < args.length; i ++) {
+                        files.add(args[i]);
+                }
+
+                if (port >= 0) {
+                        new CompileServer(port, s_jobs).serve();
+                } else if (files.size() == 1 && !new File(files.get(0)).isDirectory()) {
+                        run_single(mode, files.get(0));
+                } else if (!run_batch(mode, expand_sources(files), s_jobs, System.out)) {
+                        System.exit(-2);
+                }
         }
 
 }
@@ -21,11 +21,17 @@ package crux;
  * @author davis
  */
 public class CompilingError extends RuntimeException {
+
+        private static final long serialVersionUID = 1L;
         
         protected final String m_error;
         
+        /**
+         * @param err the message. Errors are reports rather than failures, so no stack
+         * trace is taken.
+         */
         public CompilingError(String err) {
-                super(err);
+                super(err, null, false, false);
                 m_error = err;
         }
         
@@ -0,0 +1,90 @@
+/*
+ * Copyright (C) 2017 davis
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package crux;
+
+import java.util.Arrays;
+
+/**
+ * Token extents of the top level declarations of a parse, in order. Tokens that
+ * cannot start a declaration are kept as an extent without a node, so the extents
+ * of a whole parse cover every token up to EOF.
+ * A declaration that parsed without error parses the same wherever the declaration
+ * list is at top level, which lets its tree be reused or built apart.
+ * @author davis
+ */
+class Declarations {
+
+        private int             m_size = 0;
+        private int[]           m_begin = new int[64];
+        private int[]           m_end = new int[64];
+        private ASTNode[]       m_node = new ASTNode[64];
+        private boolean[]       m_clean = new boolean[64];
+
+        /**
+         * @param begin index of the first token.
+         * @param end index of the token past the last one.
+         * @param node tree of the declaration, or null for tokens that cannot start one.
+         * @param clean if it parsed without error.
+         */
+        void add(int begin, int end, ASTNode node, boolean clean) {
+                if (m_size == m_begin.length) {
+                        int cap = m_size*2;
+                        m_begin = Arrays.copyOf(m_begin, cap);
+                        m_end = Arrays.copyOf(m_end, cap);
+                        m_node = Arrays.copyOf(m_node, cap);
+                        m_clean = Arrays.copyOf(m_clean, cap);
+                }
+                m_begin[m_size] = begin;
+                m_end[m_size] = end;
+                m_node[m_size] = node;
+                m_clean[m_size] = clean;
+                m_size++;
+        }
+
+        int size() {
+                return m_size;
+        }
+
+        int begin(int i) {
+                return m_begin[i];
+        }
+
+        int end(int i) {
+                return m_end[i];
+        }
+
+        ASTNode node(int i) {
+                return m_node[i];
+        }
+
+        boolean clean(int i) {
+                return m_clean[i];
+        }
+
+        /**
+         * @return if every declaration parsed without error.
+         */
+        boolean all_clean() {
+                for (int i = 0; i < m_size; i++) {
+                        if (!m_clean[i]) {
+                                return false;
+                        }
+                }
+                return true;
+        }
+}
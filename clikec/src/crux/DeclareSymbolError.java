@@ -21,6 +21,8 @@ package crux;
  * @author davis
  */
 public class DeclareSymbolError extends CompilingError {
+
+        private static final long serialVersionUID = 1L;
         
         public DeclareSymbolError(Token t) {
                 super("DeclareSymbolError(" + (t.file_pointer().line_no() + 1) + "," + t.file_pointer().column() 
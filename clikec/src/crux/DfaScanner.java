@@ -0,0 +1,355 @@
+/*
+ * Copyright (C) 2017 davis
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package crux;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Perform lexical analysis and generate token.
+ * Table driven scanner over the bytes of an ASCII source. A DFA is built once from the
+ * keyword and punctuation spellings of each Token.Lexeme, and every token, blank run and
+ * comment is recognized by walking it until the next byte leads to the dead state.
+ * Every live state accepts, so that walk is also the longest match.
+ * @author davis
+ */
+public class DfaScanner implements ILexer {
+
+        private static final Token.Lexeme[]     LEXEMES = Token.Lexeme.values();
+        private static final String[]           PUNCTUATION = new String[LEXEMES.length];
+
+        private static final int                ALPHABET_BITS = 7;
+        private static final int                ALPHABET = 1 << ALPHABET_BITS;
+        private static final int                DEAD = 0;
+        private static final int                START = 1;
+
+        // Accepting codes of skipped input, next to the Lexeme ordinals.
+        private static final int                BLANKS = -1;
+        private static final int                COMMENT = -2;
+        // An empty comment: only its first slash is skipped and the second one is a DIV.
+        private static final int                EMPTY_COMMENT = -3;
+
+        // Next state of (state << ALPHABET_BITS | byte).
+        private static final short[]            DELTA;
+        private static final int[]              ACCEPT;
+
+        static {
+                PUNCTUATION[Token.Lexeme.OPEN_PAREN.ordinal()] = "(";
+                PUNCTUATION[Token.Lexeme.CLOSE_PAREN.ordinal()] = ")";
+                PUNCTUATION[Token.Lexeme.OPEN_BRACE.ordinal()] = "{";
+                PUNCTUATION[Token.Lexeme.CLOSE_BRACE.ordinal()] = "}";
+                PUNCTUATION[Token.Lexeme.OPEN_BRACKET.ordinal()] = "[";
+                PUNCTUATION[Token.Lexeme.CLOSE_BRACKET.ordinal()] = "]";
+                PUNCTUATION[Token.Lexeme.ADD.ordinal()] = "+";
+                PUNCTUATION[Token.Lexeme.SUB.ordinal()] = "-";
+                PUNCTUATION[Token.Lexeme.MUL.ordinal()] = "*";
+                PUNCTUATION[Token.Lexeme.DIV.ordinal()] = "/";
+                PUNCTUATION[Token.Lexeme.GREATER_EQUAL.ordinal()] = ">=";
+                PUNCTUATION[Token.Lexeme.LESSER_EQUAL.ordinal()] = "<=";
+                PUNCTUATION[Token.Lexeme.NOT_EQUAL.ordinal()] = "!=";
+                PUNCTUATION[Token.Lexeme.EQUAL.ordinal()] = "==";
+                PUNCTUATION[Token.Lexeme.GREATER_THAN.ordinal()] = ">";
+                PUNCTUATION[Token.Lexeme.LESS_THAN.ordinal()] = "<";
+                PUNCTUATION[Token.Lexeme.ASSIGN.ordinal()] = "=";
+                PUNCTUATION[Token.Lexeme.COMMA.ordinal()] = ",";
+                PUNCTUATION[Token.Lexeme.SEMICOLON.ordinal()] = ";";
+                PUNCTUATION[Token.Lexeme.COLON.ordinal()] = ":";
+                PUNCTUATION[Token.Lexeme.CALL.ordinal()] = "::";
+
+                Builder b = new Builder();
+                DELTA = b.delta();
+                ACCEPT = b.accept();
+        }
+
+        /**
+         * Builds the transition table of the Crux tokens.
+         */
+        private static final class Builder {
+
+                private int[][]         m_next = new int[64][];
+                private int[]           m_accept = new int[64];
+                private boolean[]       m_spelled = new boolean[64];
+                private int             m_size = 0;
+
+                private final int       m_ident;
+
+                Builder() {
+                        add(0);                 // DEAD
+                        add(0);                 // START
+                        m_ident = add(Token.Lexeme.IDENTIFIER.ordinal());
+                        int integer = add(Token.Lexeme.INTEGER.ordinal());
+                        int fraction = add(Token.Lexeme.FLOAT.ordinal());
+                        int blanks = add(BLANKS);
+                        int error = add(Token.Lexeme.ERROR.ordinal());
+
+                        for (int c = 0; c < ALPHABET; c++) {
+                                if (Character.isAlphabetic(c) || c == '_') {
+                                        m_next[START][c] = m_ident;
+                                } else if (Character.isDigit(c)) {
+                                        m_next[START][c] = integer;
+                                } else {
+                                        m_next[START][c] = error;
+                                }
+                                if (Character.isAlphabetic(c) || Character.isDigit(c) || c == '_') {
+                                        m_next[m_ident][c] = m_ident;
+                                }
+                                if (Character.isDigit(c)) {
+                                        m_next[integer][c] = integer;
+                                        m_next[fraction][c] = fraction;
+                                }
+                        }
+                        m_next[integer]['.'] = fraction;
+
+                        int[] blank_chars = {'\t', '\n', Character.SPACE_SEPARATOR, Character.LINE_SEPARATOR, ' '};
+                        for (int c : blank_chars) {
+                                m_next[START][c] = blanks;
+                                m_next[blanks][c] = blanks;
+                        }
+
+                        for (Token.Lexeme type : LEXEMES) {
+                                if (Keywords.spelling(type) != null) {
+                                        spell(Keywords.spelling(type), type, true);
+                                } else if (PUNCTUATION[type.ordinal()] != null) {
+                                        spell(PUNCTUATION[type.ordinal()], type, false);
+                                }
+                        }
+
+                        // A comment runs up to, but excluding, the newline.
+                        int slash = m_next[START]['/'];
+                        int empty = add(EMPTY_COMMENT);
+                        int comment = add(COMMENT);
+                        m_next[slash]['/'] = empty;
+                        for (int c = 0; c < ALPHABET; c++) {
+                                if (c != '\n') {
+                                        m_next[empty][c] = comment;
+                                        m_next[comment][c] = comment;
+                                }
+                        }
+                }
+
+                private int add(int accept) {
+                        if (m_size == m_next.length) {
+                                m_next = Arrays.copyOf(m_next, m_size*2);
+                                m_accept = Arrays.copyOf(m_accept, m_size*2);
+                                m_spelled = Arrays.copyOf(m_spelled, m_size*2);
+                        }
+                        m_next[m_size] = new int[ALPHABET];
+                        m_accept[m_size] = accept;
+                        return m_size++;
+                }
+
+                /**
+                 * Add the path of a fixed spelling to the trie hanging off START.
+                 * Prefixes of a keyword are still identifiers, prefixes of punctuation are errors.
+                 */
+                private void spell(String text, Token.Lexeme type, boolean word) {
+                        int s = START;
+                        for (int i = 0; i < text.length(); i++) {
+                                int c = text.charAt(i);
+                                int t = m_next[s][c];
+                                if (!m_spelled[t]) {
+                                        if (word) {
+                                                t = add(Token.Lexeme.IDENTIFIER.ordinal());
+                                                System.arraycopy(m_next[m_ident], 0, m_next[t], 0, ALPHABET);
+                                        } else {
+                                                t = add(Token.Lexeme.ERROR.ordinal());
+                                        }
+                                        m_spelled[t] = true;
+                                        m_next[s][c] = t;
+                                }
+                                s = t;
+                        }
+                        m_accept[s] = type.ordinal();
+                }
+
+                short[] delta() {
+                        short[] delta = new short[m_size << ALPHABET_BITS];
+                        for (int s = 0; s < m_size; s++) {
+                                for (int c = 0; c < ALPHABET; c++) {
+                                        delta[s << ALPHABET_BITS | c] = (short) m_next[s][c];
+                                }
+                        }
+                        return delta;
+                }
+
+                int[] accept() {
+                        return Arrays.copyOf(m_accept, m_size);
+                }
+        }
+
+        private final MappedSource      m_src;
+        private final ByteBuffer        m_bytes;
+        private final int               m_len;
+        private final NameTable         m_names;
+
+        // Absolute offset of the next unread byte.
+        private int                     m_pos = 0;
+        private final LineIndex         m_lines = new LineIndex();
+        // Reading EOF still advances the column, as FilePointer.next() does.
+        private int                     m_eof_reads = 0;
+
+        // Extent of the last token, and columns to add to the one of its offset.
+        private int                     m_tok_begin;
+        private int                     m_tok_end;
+        private int                     m_tok_shift;
+        private int                     m_tok_name;
+
+        /**
+         * Construct a DfaScanner over an ASCII source.
+         * @param src source text, with src.is_ascii().
+         * @param names identifier pool of the compilation.
+         */
+        public DfaScanner(MappedSource src, NameTable names) {
+                if (!src.is_ascii()) {
+                        throw new IllegalArgumentException("DfaScanner only reads ASCII sources.");
+                }
+                m_src = src;
+                m_bytes = src.bytes();
+                m_len = src.length();
+                m_names = names;
+        }
+
+        /**
+         * @param path source file.
+         * @param names identifier pool of the compilation.
+         * @return a DfaScanner, or a BufferedScanner if the file is not ASCII.
+         * @throws IOException
+         */
+        public static ILexer open(String path, NameTable names) throws IOException {
+                MappedSource src = MappedSource.open(path);
+                if (src.is_ascii()) {
+                        return new DfaScanner(src, names);
+                }
+                return new BufferedScanner(src, names);
+        }
+
+        @Override
+        public Token.Lexeme lex_next() throws IOException {
+                while (true) {
+                        int begin = m_pos;
+                        int p = begin;
+                        int state = START;
+                        while (p < m_len) {
+                                int next = DELTA[state << ALPHABET_BITS | m_bytes.get(p)];
+                                if (next == DEAD) {
+                                        break;
+                                }
+                                state = next;
+                                p++;
+                        }
+
+                        m_tok_begin = begin;
+                        m_tok_shift = 0;
+                        m_tok_name = NameTable.NONE;
+                        if (state == START) {
+                                m_tok_end = begin;
+                                m_tok_shift = m_eof_reads++;
+                                return Token.Lexeme.EOF;
+                        }
+
+                        int accept = ACCEPT[state];
+                        switch (accept) {
+                                case BLANKS:
+                                        for (int i = begin; i < p; i++) {
+                                                if (m_bytes.get(i) == '\n') {
+                                                        m_lines.add_line(i + 1);
+                                                }
+                                        }
+                                        m_pos = p;
+                                        break;
+                                case COMMENT:
+                                        m_pos = p;
+                                        break;
+                                case EMPTY_COMMENT:
+                                        m_pos = begin + 1;
+                                        break;
+                                default:
+                                        Token.Lexeme type = LEXEMES[accept];
+                                        if (type == Token.Lexeme.IDENTIFIER) {
+                                                m_tok_name = m_names.intern(m_src, begin, p);
+                                        }
+                                        m_tok_end = p;
+                                        m_pos = p;
+                                        return type;
+                        }
+                }
+        }
+
+        @Override
+        public int begin() {
+                return m_tok_begin;
+        }
+
+        @Override
+        public int end() {
+                return m_tok_end;
+        }
+
+        @Override
+        public int line_no() {
+                return m_lines.line_of(m_tok_begin);
+        }
+
+        @Override
+        public int column() {
+                return m_lines.column_of(m_tok_begin) + m_tok_shift;
+        }
+
+        @Override
+        public LineIndex lines() {
+                return m_lines;
+        }
+
+        @Override
+        public int name_id() {
+                return m_tok_name;
+        }
+
+        @Override
+        public NameTable names() {
+                return m_names;
+        }
+
+        @Override
+        public ISource retain_source() {
+                return m_src;
+        }
+
+        /**
+         * Scan next token.
+         * @return
+         * @throws IOException
+         */
+        @Override
+        public Token scan_next() throws IOException {
+                Token.Lexeme type = lex_next();
+                if (type == Token.Lexeme.EOF) {
+                        return new Token(type, new FilePointer(line_no(), column()), "");
+                }
+                String attri = m_tok_name != NameTable.NONE
+                        ? m_names.name(m_tok_name)
+                        : BufferedScanner.attribute(m_src, type, m_tok_begin, m_tok_end);
+                return new Token(type, m_lines, m_tok_begin, attri, m_tok_name);
+        }
+
+        @Override
+        public void close() throws IOException {
+                m_src.close();
+        }
+}
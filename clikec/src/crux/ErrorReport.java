@@ -24,6 +24,8 @@ import java.util.List;
  * @author davis
  */
 public class ErrorReport extends RuntimeException {
+
+        private static final long serialVersionUID = 1L;
         
         private final List<CompilingError>      m_errors;
         
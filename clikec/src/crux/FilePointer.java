@@ -38,6 +38,10 @@ public class FilePointer {
         private final BufferedReader    m_reader;
         
         private static final int        MAX_READ_AHEAD = 1024;
+        private static final int        CHUNK_SIZE = 256;
+
+        // Scratch buffer of the bulk skips, only allocated with a reader.
+        private char[]                  m_chunk = null;
 
         /**
          * This construction accept a system file pointer. 
@@ -113,6 +117,54 @@ public class FilePointer {
                 return c;
         }
 
+        /**
+         * Skip spaces, tabs, form feeds and carriage returns in chunks, without
+         * marking each character. The marker is left at the new location.
+         * @throws IOException 
+         */
+        public void skip_spaces() throws IOException {
+                while (skip_chunk(false)) {
+                }
+                mark();
+        }
+
+        /**
+         * Skip the rest of the line in chunks, up to but excluding the newline.
+         * The marker is left at the new location.
+         * @throws IOException 
+         */
+        public void skip_line() throws IOException {
+                while (skip_chunk(true)) {
+                }
+                mark();
+        }
+
+        /**
+         * @param to_newline skip anything but a newline if true, spaces otherwise.
+         * @return if the whole chunk was skipped, so the run may continue.
+         */
+        private boolean skip_chunk(boolean to_newline) throws IOException {
+                if (m_chunk == null) {
+                        m_chunk = new char[CHUNK_SIZE];
+                }
+                m_reader.mark(CHUNK_SIZE);
+                int n = m_reader.read(m_chunk, 0, CHUNK_SIZE);
+                int k = 0;
+                if (to_newline) {
+                        while (k < n && m_chunk[k] != '\n') {
+                                k++;
+                        }
+                } else {
+                        while (k < n && ISource.is_space(m_chunk[k])) {
+                                k++;
+                        }
+                }
+                m_reader.reset();
+                m_reader.skip(k);
+                m_j += k;
+                return n > 0 && k == n;
+        }
+
         /**
          * Reset to the most recent marker location.
          * @throws IOException 
@@ -123,6 +175,15 @@ public class FilePointer {
                 m_j = m_mj;
         }
         
+        /**
+         * @param fp location, or null.
+         * @param lines line offset.
+         * @return the location that many lines further down, or null.
+         */
+        public static FilePointer shift_lines(FilePointer fp, int lines) {
+                return fp == null ? null : new FilePointer(fp.m_i + lines, fp.m_j);
+        }
+
         @Override
         public boolean equals(Object o) {
                 FilePointer other = (FilePointer) o;
@@ -0,0 +1,285 @@
+/*
+ * Copyright (C) 2017 davis
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package crux;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * An abstract syntax tree packed into parallel primitive arrays.
+ * Nodes are numbered in preorder with children in id order, so the root is node 0,
+ * every subtree is a contiguous range, and printing is a linear scan.
+ * Each node keeps its id under its parent, as ASTNode does, since ids may be sparse.
+ * Terminals are shared in one Token array.
+ * @author davis
+ */
+public class FlatAST {
+
+        /**
+         * No node.
+         */
+        public static final int NONE = -1;
+
+        private static final AbstractMetaData.Type[]    KINDS = AbstractMetaData.Type.values();
+        private static final long                       NO_POS = Long.MIN_VALUE;
+        private static final int                        INITIAL_CAPACITY = 1024;
+
+        private final NameTable m_names;
+        private int             m_size = 0;
+        // AbstractMetaData.Type ordinal, NONE for a node without an element.
+        private byte[]          m_kind = new byte[INITIAL_CAPACITY];
+        private int[]           m_first_child = new int[INITIAL_CAPACITY];
+        private int[]           m_next_sibling = new int[INITIAL_CAPACITY];
+        private int[]           m_id = new int[INITIAL_CAPACITY];
+        // Line and column packed into a long: the node's, and its element's, which is printed.
+        private long[]          m_pos = new long[INITIAL_CAPACITY];
+        private long[]          m_elm_pos = new long[INITIAL_CAPACITY];
+        // Terminals of node n are m_terms[m_term_begin[n] .. m_term_begin[n + 1]).
+        private int[]           m_term_begin = new int[INITIAL_CAPACITY + 1];
+        private Token[]         m_terms = new Token[INITIAL_CAPACITY];
+        private IType[]         m_type = new IType[INITIAL_CAPACITY];
+
+        private FlatAST(NameTable names) {
+                m_names = names;
+        }
+
+        /**
+         * Flatten a tree. The tree is walked with an explicit stack, and is no longer
+         * needed afterwards.
+         * @param tree tree built by the parser.
+         * @return the flat tree.
+         */
+        public static FlatAST of(AST tree) {
+                FlatAST flat = new FlatAST(tree.names());
+                if (tree.get_root() == null) {
+                        return flat;
+                }
+
+                List<ASTNode> stack = new ArrayList<>();
+                int[] parents = new int[64];
+                // Last child linked so far, indexed by node.
+                int[] last = new int[INITIAL_CAPACITY];
+                stack.add(tree.get_root());
+                parents[0] = NONE;
+                while (!stack.isEmpty()) {
+                        int top = stack.size() - 1;
+                        ASTNode node = stack.remove(top);
+                        int parent = parents[top];
+
+                        int n = flat.add(node);
+                        if (n == last.length) {
+                                last = Arrays.copyOf(last, n*2);
+                        }
+                        last[n] = NONE;
+                        if (parent != NONE) {
+                                if (last[parent] == NONE) {
+                                        flat.m_first_child[parent] = n;
+                                } else {
+                                        flat.m_next_sibling[last[parent]] = n;
+                                }
+                                last[parent] = n;
+                        }
+
+                        for (int i = node.max_id(); i >= 0; i--) {
+                                ASTNode child = (ASTNode) node.get_child(i);
+                                if (child != null) {
+                                        if (stack.size() == parents.length) {
+                                                parents = Arrays.copyOf(parents, parents.length*2);
+                                        }
+                                        parents[stack.size()] = n;
+                                        stack.add(child);
+                                }
+                        }
+                }
+                return flat;
+        }
+
+        private static long pack(FilePointer fp) {
+                return fp == null ? NO_POS : (long) fp.line_no() << 32 | (fp.column() & 0xffffffffL);
+        }
+
+        private static FilePointer unpack(long pos) {
+                return pos == NO_POS ? null : new FilePointer((int) (pos >> 32), (int) pos);
+        }
+
+        private void grow() {
+                int cap = m_size*2;
+                m_kind = Arrays.copyOf(m_kind, cap);
+                m_first_child = Arrays.copyOf(m_first_child, cap);
+                m_next_sibling = Arrays.copyOf(m_next_sibling, cap);
+                m_id = Arrays.copyOf(m_id, cap);
+                m_pos = Arrays.copyOf(m_pos, cap);
+                m_elm_pos = Arrays.copyOf(m_elm_pos, cap);
+                m_term_begin = Arrays.copyOf(m_term_begin, cap + 1);
+                m_type = Arrays.copyOf(m_type, cap);
+        }
+
+        private int add(ASTNode node) {
+                if (m_size == m_kind.length) {
+                        grow();
+                }
+                int n = m_size++;
+                AbstractMetaData data = (AbstractMetaData) node.get_element();
+                m_first_child[n] = NONE;
+                m_next_sibling[n] = NONE;
+                m_id[n] = node.get_id();
+                m_pos[n] = pack(node.get_pos());
+
+                int terms = m_term_begin[n];
+                if (data == null) {
+                        m_kind[n] = NONE;
+                        m_elm_pos[n] = NO_POS;
+                } else {
+                        m_kind[n] = (byte) data.type().ordinal();
+                        m_elm_pos[n] = pack(data.get_pos());
+                        m_type[n] = data.get_type();
+                        List<Token> toks = data.terminals();
+                        if (terms + toks.size() > m_terms.length) {
+                                m_terms = Arrays.copyOf(m_terms, Math.max(m_terms.length*2, terms + toks.size()));
+                        }
+                        for (int i = 0; i < toks.size(); i++) {
+                                m_terms[terms++] = toks.get(i);
+                        }
+                }
+                m_term_begin[n + 1] = terms;
+                return n;
+        }
+
+        /**
+         * @return number of nodes.
+         */
+        public int size() {
+                return m_size;
+        }
+
+        /**
+         * @return the root node, or NONE for an empty tree.
+         */
+        public int root() {
+                return m_size == 0 ? NONE : 0;
+        }
+
+        public NameTable names() {
+                return m_names;
+        }
+
+        /**
+         * @param n node.
+         * @return type of the node's element, or null if it has none.
+         */
+        public AbstractMetaData.Type kind(int n) {
+                return m_kind[n] == NONE ? null : KINDS[m_kind[n]];
+        }
+
+        public int first_child(int n) {
+                return m_first_child[n];
+        }
+
+        public int next_sibling(int n) {
+                return m_next_sibling[n];
+        }
+
+        /**
+         * @param n node.
+         * @return id of n under its parent.
+         */
+        public int id(int n) {
+                return m_id[n];
+        }
+
+        /**
+         * @param n node.
+         * @return number of children, as GeneralNode.children_size() counts them.
+         */
+        public int children_size(int n) {
+                int size = 0;
+                for (int c = m_first_child[n]; c != NONE; c = m_next_sibling[c]) {
+                        size++;
+                }
+                return size;
+        }
+
+        /**
+         * @param n node.
+         * @return location of the node.
+         */
+        public FilePointer pos(int n) {
+                return unpack(m_pos[n]);
+        }
+
+        /**
+         * @param n node.
+         * @return location of the node's element, the one printed.
+         */
+        public FilePointer element_pos(int n) {
+                return unpack(m_elm_pos[n]);
+        }
+
+        public int terminals_size(int n) {
+                return m_term_begin[n + 1] - m_term_begin[n];
+        }
+
+        public Token terminal(int n, int i) {
+                return m_terms[m_term_begin[n] + i];
+        }
+
+        public List<Token> terminals(int n) {
+                return Arrays.asList(m_terms).subList(m_term_begin[n], m_term_begin[n + 1]);
+        }
+
+        /**
+         * @param n node.
+         * @return type of the node, or null if not typed yet.
+         */
+        public IType type(int n) {
+                return m_type[n];
+        }
+
+        /**
+         * Print the tree a line per node, as the tst_ast expectations are.
+         * @param out where the tree is written; not flushed.
+         * @throws IOException
+         */
+        public void write(Writer out) throws IOException {
+                TreePrinter printer = new TreePrinter(out);
+                // Nodes are in preorder, so a node's depth is known before it is reached.
+                int[] depth = new int[m_size];
+                for (int n = 0; n < m_size; n++) {
+                        printer.line(depth[n], AbstractMetaData.to_string(kind(n), element_pos(n), terminals(n)));
+                        for (int c = m_first_child[n]; c != NONE; c = m_next_sibling[c]) {
+                                depth[c] = depth[n] + 1;
+                        }
+                }
+        }
+
+        @Override
+        public String toString() {
+                StringWriter pb = new StringWriter();
+                try {
+                        write(pb);
+                } catch (IOException e) {
+                        // A StringWriter does not fail.
+                        throw new IllegalStateException(e);
+                }
+                return pb.toString();
+        }
+}
@@ -17,19 +17,22 @@
  */
 package crux;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.util.Arrays;
 
 /**
  * @author davis
  */
 public class GeneralNode {
 
-	protected final int m_id;
+	protected int m_id;
         protected GeneralNode m_parent;
         protected SyntacticElement m_element;
-        protected Map<Integer, GeneralNode> m_children = new HashMap<>();
-        protected int m_max_id = -1;
+        // Children indexed by id. Ids may be sparse: a null slot is an absent id.
+        private GeneralNode[] m_children = NO_CHILDREN;
+        private int m_children_size = 0;
+        private int m_max_id = -1;
+
+        private static final GeneralNode[] NO_CHILDREN = new GeneralNode[0];
 
         public GeneralNode(GeneralNode parent, SyntacticElement elm, int id) {
                 m_parent = parent;
@@ -47,32 +50,110 @@ public class GeneralNode {
 
         public GeneralNode add_child(int id, SyntacticElement elm) {
                 GeneralNode node = new GeneralNode(this, elm, id);
-                m_children.put(id, node);
-                m_max_id = Math.max(m_max_id, id);
+                put_child(id, node);
                 return node;
         }
+
+        /**
+         * Attach child under id, replacing the child already there.
+         * The array is sized to the largest id seen, so nodes with a few children stay small.
+         * @param id child id.
+         * @param child child node; null leaves the id absent.
+         */
+        protected void put_child(int id, GeneralNode child) {
+                if (id >= m_children.length) {
+                        m_children = Arrays.copyOf(m_children, Math.max(id + 1, m_children.length*2));
+                }
+                if (m_children[id] == null && child != null) {
+                        m_children_size++;
+                } else if (m_children[id] != null && child == null) {
+                        m_children_size--;
+                }
+                m_children[id] = child;
+                m_max_id = Math.max(m_max_id, id);
+        }
         
         public GeneralNode get_child(int id) {
-                return m_children.get(id);
+                return id >= 0 && id < m_children.length ? m_children[id] : null;
         }
 
+        /**
+         * @return number of distinct ids holding a child.
+         */
         public int children_size() {
-                return m_children.size();
+                return m_children_size;
         }
         
         public int max_id() {
                 return m_max_id;
         }
         
-        private SyntacticElement bottom_left(GeneralNode node) {
-                if (node.children_size() == 0) {
-                        return node.get_element();
-                } else {
-                        return bottom_left(node.get_child(0));
+        public SyntacticElement bottom_left() {
+                GeneralNode node = this;
+                while (node.children_size() != 0) {
+                        node = node.get_child(0);
                 }
+                return node.get_element();
         }
-        
-        public SyntacticElement bottom_left() {
-                return bottom_left(this);
+
+        /**
+         * Hooks of walk().
+         */
+        public interface Visitor {
+
+                /**
+                 * Called before the children of a node.
+                 * @param node the node.
+                 * @param depth depth below the node walk() started at.
+                 * @return if the children are to be visited.
+                 */
+                boolean pre(GeneralNode node, int depth);
+
+                /**
+                 * Called after the children of a node, or right after pre() if they are skipped.
+                 * @param node the node.
+                 * @param depth depth below the node walk() started at.
+                 */
+                void post(GeneralNode node, int depth);
+        }
+
+        /**
+         * Walk the subtree depth first on an explicit stack, so that its depth is only
+         * limited by the heap. Children are visited in id order, ids below children_size()
+         * as the tree has always been enumerated, and absent ones are skipped.
+         * @param v hooks called at each node.
+         */
+        public void walk(Visitor v) {
+                GeneralNode[] nodes = new GeneralNode[16];
+                int[] next = new int[16];
+                int top = 0;
+                if (!v.pre(this, 0)) {
+                        v.post(this, 0);
+                        return;
+                }
+                nodes[0] = this;
+                next[0] = 0;
+                while (top >= 0) {
+                        GeneralNode node = nodes[top];
+                        if (next[top] == node.children_size()) {
+                                nodes[top] = null;
+                                v.post(node, top--);
+                                continue;
+                        }
+                        GeneralNode child = node.get_child(next[top]++);
+                        if (child == null) {
+                                continue;
+                        }
+                        if (!v.pre(child, top + 1)) {
+                                v.post(child, top + 1);
+                                continue;
+                        }
+                        if (++top == nodes.length) {
+                                nodes = Arrays.copyOf(nodes, top*2);
+                                next = Arrays.copyOf(next, top*2);
+                        }
+                        nodes[top] = child;
+                        next[top] = 0;
+                }
         }
 }
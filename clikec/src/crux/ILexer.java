@@ -0,0 +1,71 @@
+/*
+ * Copyright (C) 2017 davis
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package crux;
+
+import java.io.IOException;
+
+/**
+ * A scanner that can also describe tokens by source offsets without materializing them.
+ * @author davis
+ */
+public interface ILexer extends IScanner {
+
+        /**
+         * Scan next token. The token is described by begin(), end(), line_no(),
+         * column() and name_id() until the next call.
+         * @return lexeme type of the token.
+         * @throws IOException
+         */
+        public Token.Lexeme lex_next() throws IOException;
+
+        /**
+         * @return absolute offset of the first character of the last token.
+         */
+        public int begin();
+
+        /**
+         * @return absolute offset past the last character of the last token.
+         */
+        public int end();
+
+        /**
+         * @return zero-offset line number of the last token.
+         */
+        public int line_no();
+
+        /**
+         * @return column of the last token, as printed by FilePointer.
+         */
+        public int column();
+
+        /**
+         * @return start offsets of the lines scanned so far.
+         */
+        public LineIndex lines();
+
+        /**
+         * @return id of the last token if it is an identifier, NameTable.NONE otherwise.
+         */
+        public int name_id();
+
+        /**
+         * Keep the whole source around so that tokens can be sliced after scanning.
+         * @return the source.
+         */
+        public ISource retain_source();
+}
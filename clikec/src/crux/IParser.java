@@ -24,4 +24,5 @@ package crux;
 public interface IParser {
         
         void parse(IScanner s, AST ast, ParseTree pt) throws ErrorReport;
+        void parse(TokenBuffer toks, AST ast, ParseTree pt) throws ErrorReport;
 }
@@ -1,5 +1,6 @@
 package crux;
 
+import java.io.Closeable;
 import java.io.IOException;
 
 /*
@@ -24,6 +25,18 @@ import java.io.IOException;
  * Perform lexical analysis and generate token.
  * @author davis
  */
-public interface IScanner {
+public interface IScanner extends Closeable {
         public Token scan_next() throws IOException;
+
+        /**
+         * @return the pool identifiers are interned into.
+         */
+        public NameTable names();
+
+        /**
+         * Release the source file. Tokens already scanned stay valid.
+         * @throws IOException
+         */
+        @Override
+        public void close() throws IOException;
 }
@@ -0,0 +1,71 @@
+/*
+ * Copyright (C) 2017 davis
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package crux;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Source text addressed by absolute character offset.
+ * @author davis
+ */
+public interface ISource extends Closeable {
+        /**
+         * @param offset absolute character offset.
+         * @return the character at offset, or -1 if offset is at or beyond EOF.
+         * @throws IOException
+         */
+        int at(int offset) throws IOException;
+
+        /**
+         * Hint that characters before offset will not be read again.
+         * @param offset absolute character offset.
+         */
+        void release(int offset);
+
+        /**
+         * @param begin absolute offset of the first character.
+         * @param end absolute offset past the last character.
+         * @return the characters in [begin, end).
+         */
+        String slice(int begin, int end);
+
+        /**
+         * Skip a run of blanks that do not end a line.
+         * @param offset absolute character offset.
+         * @return the first offset at or after offset that does not hold a space, tab,
+         *         form feed or carriage return. That is the end of the source if there is none.
+         * @throws IOException
+         */
+        int skip_spaces(int offset) throws IOException;
+
+        /**
+         * @param offset absolute character offset.
+         * @return offset of the first newline at or after offset, or the end of the source.
+         * @throws IOException
+         */
+        int find_newline(int offset) throws IOException;
+
+        /**
+         * @param c a character.
+         * @return if c is a blank that does not end a line.
+         */
+        static boolean is_space(int c) {
+                return c == ' ' || c == '\t' || c == Character.SPACE_SEPARATOR || c == Character.LINE_SEPARATOR;
+        }
+}
@@ -20,28 +20,52 @@ package crux;
 import java.util.List;
 
 /**
+ * Operations and checks of types. An operation the operands do not allow, or a
+ * failed check, returns an error type instead of throwing: is_error() tells it
+ * apart, and error_msg() formats the diagnostic, only when it is asked for.
  * @author davis
  */
 public interface IType {
         List<IType> sub_decls();
         
-	IType add(IType that) throws TypeError;
-	IType sub(IType that) throws TypeError;
-	IType mul(IType that) throws TypeError;
-	IType div(IType that) throws TypeError;
-	IType and(IType that) throws TypeError;
-	IType or(IType that) throws TypeError;
-	IType not() throws TypeError;
-	IType compare(IType that) throws TypeError;
-	IType deref() throws TypeError;
-	IType index(IType that) throws TypeError;
-	IType call(IType args, String func_name) throws TypeError;
-	IType assign(IType source) throws TypeError;
-        IType ret(IType value, String func_name) throws TypeError;
+	IType add(IType that);
+	IType sub(IType that);
+	IType mul(IType that);
+	IType div(IType that);
+	IType and(IType that);
+	IType or(IType that);
+	IType not();
+	IType compare(IType that);
+	IType deref();
+	IType index(IType that);
+	IType call(IType args, String func_name);
+	IType assign(IType source);
+        IType ret(IType value, String func_name);
         
-        void check_entrance() throws TypeError;
-        void check_decl(String name) throws TypeError;
-        void check_cond(String constr) throws TypeError;
+        /**
+         * @return the error, or null if the type is a valid signature of main.
+         */
+        IType check_entrance();
+
+        /**
+         * @return the error, or null if the type is valid for a declaration.
+         */
+        IType check_decl(String name);
+
+        /**
+         * @return the error, or null if the type is valid for a condition of constr.
+         */
+        IType check_cond(String constr);
         
         boolean has_return();
+
+        /**
+         * @return if the type is the result of a failed operation or check.
+         */
+        boolean is_error();
+
+        /**
+         * @return the diagnostic of an error type, as TypeError reports it.
+         */
+        String error_msg();
 }
@@ -0,0 +1,204 @@
+/*
+ * Copyright (C) 2017 davis
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package crux;
+
+import java.io.IOException;
+import java.io.StringReader;
+
+/**
+ * Keep the AST of a source being edited, reparsing only the top level declarations an
+ * edit touches.
+ * The edited source is scanned again, which is cheap next to building trees. A
+ * declaration that parsed without error and whose tokens are the same before or after
+ * the edit is moved to the new tree as it is, since it parses the same wherever the
+ * declaration list is at top level; the ones in between are parsed again. The result
+ * is the tree, and the syntax errors, a full parse of the edited source gives.
+ * <p>
+ * Moved declarations keep the name ids of the scan that made them, so every scan
+ * since the last full parse shares one NameTable, which keeps the names edits
+ * abandoned. Once it holds twice the names of the last full parse, plus
+ * NAME_SLACK, the next edit parses the source in full with a new table.
+ * @author davis
+ */
+public class IncrementalParser {
+
+        private final ParserRecursiveDescent    m_parser = new ParserRecursiveDescent();
+        private static final int                NAME_SLACK = 1024;
+
+        private NameTable                       m_names = new NameTable();
+        private int                             m_max_names;
+        private String                          m_text = "";
+        private TokenBuffer                     m_toks;
+        private AST                             m_ast;
+        private Declarations                    m_units;
+        private int                             m_reparsed;
+
+        /**
+         * Parse a whole source.
+         * @param text source text.
+         * @return the tree, also left in ast().
+         * @throws ErrorReport if the source has syntax errors; ast() is complete nonetheless.
+         */
+        public AST parse(String text) throws ErrorReport {
+                m_names = new NameTable();
+                TokenBuffer toks = scan(text);
+                m_max_names = 2*m_names.size() + NAME_SLACK;
+                AST ast = new AST();
+                Declarations units = new Declarations();
+                m_parser.reparse(toks, ast, 0, 0, new int[0], units);
+                update(text, toks, ast, units, units.size());
+                return ast;
+        }
+
+        /**
+         * Replace part of the source and reparse the declarations it touches.
+         * Nodes of the previous tree are moved to the new one, so the previous tree
+         * must no longer be used.
+         * @param offset offset of the replaced text.
+         * @param removed length of the replaced text.
+         * @param inserted replacement text.
+         * @return the tree of the edited source, also left in ast().
+         * @throws ErrorReport if the edited source has syntax errors; ast() is complete nonetheless.
+         */
+        public AST edit(int offset, int removed, String inserted) throws ErrorReport {
+                String text = m_text.substring(0, offset) + inserted + m_text.substring(offset + removed);
+                if (m_toks == null || m_names.size() > m_max_names) {
+                        return parse(text);
+                }
+                TokenBuffer toks = scan(text);
+                TokenBuffer old = m_toks;
+                Declarations units = m_units;
+                int shift = toks.size() - old.size();
+
+                // Tokens scanned the same before the edit, and after it.
+                int max = Math.min(old.size(), toks.size());
+                int same_before = 0;
+                while (same_before < max
+                       && old.begin(same_before) + old.length(same_before) <= offset
+                       && same(old, same_before, toks, same_before, 0)) {
+                        same_before++;
+                }
+                int same_after = 0;
+                int delta = inserted.length() - removed;
+                while (same_after < max - same_before) {
+                        int i = old.size() - 1 - same_after;
+                        if (old.begin(i) < offset + removed || !same(old, i, toks, i + shift, delta)) {
+                                break;
+                        }
+                        same_after++;
+                }
+
+                int before = 0;
+                while (before < units.size() && units.clean(before) && units.end(before) <= same_before) {
+                        before++;
+                }
+                // Declarations after the edit keep their columns unless they start on its last line.
+                int after = units.size();
+                while (after > before && units.clean(after - 1)
+                       && units.begin(after - 1) >= old.size() - same_after
+                       && old.file_pointer(units.begin(after - 1)).column()
+                          == toks.file_pointer(units.begin(after - 1) + shift).column()) {
+                        after--;
+                }
+                int[] stops = new int[units.size() - after];
+                for (int i = 0; i < stops.length; i++) {
+                        stops[i] = units.begin(after + i) + shift;
+                }
+
+                Declarations next = new Declarations();
+                for (int i = 0; i < before; i++) {
+                        next.add(units.begin(i), units.end(i), units.node(i), true);
+                }
+                AST ast = new AST();
+                int begin = before == 0 ? 0 : units.end(before - 1);
+                int stop = m_parser.reparse(toks, ast, begin, before, stops, next);
+                int reparsed = next.size() - before;
+
+                ASTNode root = ast.get_root();
+                int id = 0;
+                for (int i = 0; i < next.size(); i++) {
+                        if (next.node(i) != null) {
+                                id++;
+                        }
+                }
+                for (int i = 0; i < before; i++) {
+                        units.node(i).attach(root, i);
+                }
+                if (stop < stops.length) {
+                        int lines = toks.file_pointer(stops[stop]).line_no()
+                                    - old.file_pointer(units.begin(after + stop)).line_no();
+                        for (int i = after + stop; i < units.size(); i++) {
+                                ASTNode node = units.node(i);
+                                if (lines != 0) {
+                                        node.shift_lines(lines);
+                                }
+                                node.attach(root, id++);
+                                next.add(units.begin(i) + shift, units.end(i) + shift, node, true);
+                        }
+                }
+                update(text, toks, ast, next, reparsed);
+                return ast;
+        }
+
+        private void update(String text, TokenBuffer toks, AST ast, Declarations units, int reparsed) throws ErrorReport {
+                m_text = text;
+                m_toks = toks;
+                m_ast = ast;
+                m_units = units;
+                m_reparsed = reparsed;
+                m_parser.report_errors();
+        }
+
+        // Same token, moved by delta characters.
+        private static boolean same(TokenBuffer a, int i, TokenBuffer b, int j, int delta) {
+                return a.type(i) == b.type(j)
+                       && a.begin(i) + delta == b.begin(j)
+                       && a.length(i) == b.length(j);
+        }
+
+        private TokenBuffer scan(String text) {
+                try {
+                        return TokenBuffer.scan(new BufferedScanner(new SourceWindow(new StringReader(text)), m_names));
+                } catch (IOException ex) {
+                        // A StringReader does not fail.
+                        throw new IllegalStateException(ex);
+                }
+        }
+
+        /**
+         * @return source text of the last parse.
+         */
+        public String text() {
+                return m_text;
+        }
+
+        /**
+         * @return tree of the last parse, or null before the first one.
+         */
+        public AST ast() {
+                return m_ast;
+        }
+
+        /**
+         * @return number of top level declarations parsed by the last parse or edit,
+         * counting runs of tokens that cannot start one.
+         */
+        public int reparsed() {
+                return m_reparsed;
+        }
+}
@@ -0,0 +1,139 @@
+/*
+ * Copyright (C) 2017 davis
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package crux;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+/**
+ * Keyword recognition without building a String.
+ * The first character and the length of a keyword identify it uniquely, so a
+ * candidate is picked by a switch on the two and then verified character by character.
+ * @author davis
+ */
+public final class Keywords {
+
+        private static final String[] SPELLING = new String[Token.Lexeme.values().length];
+
+        static {
+                SPELLING[Token.Lexeme.AND.ordinal()] = "and";
+                SPELLING[Token.Lexeme.OR.ordinal()] = "or";
+                SPELLING[Token.Lexeme.NOT.ordinal()] = "not";
+                SPELLING[Token.Lexeme.LET.ordinal()] = "let";
+                SPELLING[Token.Lexeme.VAR.ordinal()] = "var";
+                SPELLING[Token.Lexeme.ARRAY.ordinal()] = "array";
+                SPELLING[Token.Lexeme.FUNC.ordinal()] = "func";
+                SPELLING[Token.Lexeme.IF.ordinal()] = "if";
+                SPELLING[Token.Lexeme.ELSE.ordinal()] = "else";
+                SPELLING[Token.Lexeme.WHILE.ordinal()] = "while";
+                SPELLING[Token.Lexeme.TRUE.ordinal()] = "true";
+                SPELLING[Token.Lexeme.FALSE.ordinal()] = "false";
+                SPELLING[Token.Lexeme.RETURN.ordinal()] = "return";
+        }
+
+        private Keywords() {
+        }
+
+        /**
+         * @param type lexeme type.
+         * @return spelling of the keyword, or null if type is not a keyword.
+         */
+        static String spelling(Token.Lexeme type) {
+                return SPELLING[type.ordinal()];
+        }
+
+        /**
+         * @param first first character of the identifier.
+         * @param len length of the identifier.
+         * @return the only keyword that could match, or null.
+         */
+        private static Token.Lexeme candidate(int first, int len) {
+                switch (first) {
+                        case 'a':
+                                return len == 3 ? Token.Lexeme.AND : len == 5 ? Token.Lexeme.ARRAY : null;
+                        case 'e':
+                                return len == 4 ? Token.Lexeme.ELSE : null;
+                        case 'f':
+                                return len == 4 ? Token.Lexeme.FUNC : len == 5 ? Token.Lexeme.FALSE : null;
+                        case 'i':
+                                return len == 2 ? Token.Lexeme.IF : null;
+                        case 'l':
+                                return len == 3 ? Token.Lexeme.LET : null;
+                        case 'n':
+                                return len == 3 ? Token.Lexeme.NOT : null;
+                        case 'o':
+                                return len == 2 ? Token.Lexeme.OR : null;
+                        case 'r':
+                                return len == 6 ? Token.Lexeme.RETURN : null;
+                        case 't':
+                                return len == 4 ? Token.Lexeme.TRUE : null;
+                        case 'v':
+                                return len == 3 ? Token.Lexeme.VAR : null;
+                        case 'w':
+                                return len == 5 ? Token.Lexeme.WHILE : null;
+                        default:
+                                return null;
+                }
+        }
+
+        /**
+         * Random access to the characters of an identifier.
+         */
+        private interface Chars {
+                int at(int offset) throws IOException;
+        }
+
+        /**
+         * @param s identifier text.
+         * @return the keyword spelled by s, or IDENTIFIER.
+         */
+        public static Token.Lexeme lookup(CharSequence s) {
+                try {
+                        return lookup(s::charAt, 0, s.length());
+                } catch (IOException e) {
+                        // A CharSequence does not throw.
+                        throw new UncheckedIOException(e);
+                }
+        }
+
+        /**
+         * @param src source text.
+         * @param begin absolute offset of the identifier.
+         * @param end absolute offset past the identifier.
+         * @return the keyword spelled by the identifier, or IDENTIFIER.
+         * @throws IOException
+         */
+        public static Token.Lexeme lookup(ISource src, int begin, int end) throws IOException {
+                return lookup(src::at, begin, end);
+        }
+
+        private static Token.Lexeme lookup(Chars chars, int begin, int end) throws IOException {
+                int len = end - begin;
+                Token.Lexeme kw = len == 0 ? null : candidate(chars.at(begin), len);
+                if (kw == null) {
+                        return Token.Lexeme.IDENTIFIER;
+                }
+                String text = SPELLING[kw.ordinal()];
+                for (int i = 1; i < len; i++) {
+                        if (chars.at(begin + i) != text.charAt(i)) {
+                                return Token.Lexeme.IDENTIFIER;
+                        }
+                }
+                return kw;
+        }
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright (C) 2017 davis
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package crux;
+
+import java.util.Arrays;
+
+/**
+ * Start offsets of the lines of a source, so that a token only has to carry its
+ * offset. Line and column are resolved by binary search when they are printed.
+ * @author davis
+ */
+public class LineIndex {
+
+        private int[]   m_starts = new int[256];
+        private int     m_size = 1;
+
+        /**
+         * Record the start of the next line.
+         * @param start absolute offset just past a newline, larger than any recorded so far.
+         */
+        public void add_line(int start) {
+                if (m_size == m_starts.length) {
+                        m_starts = Arrays.copyOf(m_starts, m_size*2);
+                }
+                m_starts[m_size++] = start;
+        }
+
+        /**
+         * @return number of lines recorded so far.
+         */
+        public int size() {
+                return m_size;
+        }
+
+        /**
+         * @param offset absolute character offset.
+         * @return zero-offset line number of offset.
+         */
+        public int line_of(int offset) {
+                if (offset >= m_starts[m_size - 1]) {
+                        // The line being scanned.
+                        return m_size - 1;
+                }
+                int lo = 0;
+                int hi = m_size - 1;
+                while (lo < hi) {
+                        int mid = (lo + hi + 1) >>> 1;
+                        if (m_starts[mid] <= offset) {
+                                lo = mid;
+                        } else {
+                                hi = mid - 1;
+                        }
+                }
+                return lo;
+        }
+
+        /**
+         * @param line zero-offset line number.
+         * @return absolute offset of the first character of line.
+         */
+        public int line_start(int line) {
+                return m_starts[line];
+        }
+
+        /**
+         * @param offset absolute character offset.
+         * @return column of offset, as printed by FilePointer.
+         */
+        public int column_of(int offset) {
+                return offset - m_starts[line_of(offset)] + 1;
+        }
+
+        /**
+         * @param offset absolute character offset.
+         * @return location of offset.
+         */
+        public FilePointer file_pointer(int offset) {
+                int line = line_of(offset);
+                return new FilePointer(line, offset - m_starts[line] + 1);
+        }
+}
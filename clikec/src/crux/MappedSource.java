@@ -0,0 +1,199 @@
+/*
+ * Copyright (C) 2017 davis
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package crux;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A source file mapped into memory.
+ * ASCII files are read straight out of the mapping, one byte per character,
+ * without being copied onto the heap. Anything else is decoded as UTF-8 once.
+ * @author davis
+ */
+public class MappedSource implements ISource {
+
+        private static final long       HIGH_BITS = 0x8080808080808080L;
+        private static final long       LOW_BITS = 0x7F7F7F7F7F7F7F7FL;
+        private static final long       ONES = 0x0101010101010101L;
+
+        private final MappedByteBuffer  m_bytes;
+        private final int               m_len;
+        // Decoded text when the file is not pure ASCII, null otherwise.
+        private final char[]            m_chars;
+
+        private MappedSource(MappedByteBuffer bytes) {
+                m_bytes = bytes;
+                if (is_ascii(bytes)) {
+                        m_len = bytes.limit();
+                        m_chars = null;
+                } else {
+                        CharBuffer cb = StandardCharsets.UTF_8.decode(bytes.duplicate());
+                        m_len = cb.limit();
+                        m_chars = new char[m_len];
+                        cb.get(m_chars);
+                }
+        }
+
+        /**
+         * @param path source file.
+         * @return the file mapped read-only.
+         * @throws IOException
+         */
+        public static MappedSource open(String path) throws IOException {
+                try (FileChannel ch = FileChannel.open(Paths.get(path), StandardOpenOption.READ)) {
+                        if (ch.size() > Integer.MAX_VALUE) {
+                                throw new IOException("Source file is too large: " + path);
+                        }
+                        return new MappedSource(ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size()));
+                }
+        }
+
+        private static boolean is_ascii(MappedByteBuffer bytes) {
+                int n = bytes.limit();
+                int i = 0;
+                for (; i + 8 <= n; i += 8) {
+                        if ((bytes.getLong(i) & HIGH_BITS) != 0) {
+                                return false;
+                        }
+                }
+                for (; i < n; i++) {
+                        if (bytes.get(i) < 0) {
+                                return false;
+                        }
+                }
+                return true;
+        }
+
+        /**
+         * @param word eight bytes.
+         * @param c byte to look for.
+         * @return the high bit set in every byte of word equal to c, and nothing else.
+         */
+        private static long match(long word, int c) {
+                long x = word ^ (c * ONES);
+                return ~(((x & LOW_BITS) + LOW_BITS) | x | LOW_BITS);
+        }
+
+        /**
+         * @param mask a result of match().
+         * @return index of the first matched byte in memory order.
+         */
+        private static int first(long mask) {
+                return Long.numberOfLeadingZeros(mask) >>> 3;
+        }
+
+        /**
+         * @return if the characters are read directly from the mapped bytes.
+         */
+        public boolean is_ascii() {
+                return m_chars == null;
+        }
+
+        /**
+         * @return the mapped bytes, one per character when is_ascii().
+         */
+        ByteBuffer bytes() {
+                return m_bytes;
+        }
+
+        /**
+         * @return number of characters.
+         */
+        public int length() {
+                return m_len;
+        }
+
+        @Override
+        public int at(int offset) {
+                if (offset >= m_len) {
+                        return -1;
+                }
+                return m_chars == null ? m_bytes.get(offset) : m_chars[offset];
+        }
+
+        @Override
+        public void release(int offset) {
+                // The whole file stays mapped.
+        }
+
+        /**
+         * On ASCII files eight bytes are tested at a time (SWAR).
+         */
+        @Override
+        public int skip_spaces(int offset) {
+                int i = offset;
+                if (m_chars == null) {
+                        for (; i + 8 <= m_len; i += 8) {
+                                long w = m_bytes.getLong(i);
+                                long spaces = match(w, ' ') | match(w, '\t')
+                                        | match(w, Character.SPACE_SEPARATOR) | match(w, Character.LINE_SEPARATOR);
+                                if (spaces != HIGH_BITS) {
+                                        return i + first(~spaces & HIGH_BITS);
+                                }
+                        }
+                }
+                while (i < m_len && ISource.is_space(at(i))) {
+                        i++;
+                }
+                return i;
+        }
+
+        /**
+         * On ASCII files eight bytes are tested at a time (SWAR).
+         */
+        @Override
+        public int find_newline(int offset) {
+                int i = offset;
+                if (m_chars == null) {
+                        for (; i + 8 <= m_len; i += 8) {
+                                long newlines = match(m_bytes.getLong(i), '\n');
+                                if (newlines != 0) {
+                                        return i + first(newlines);
+                                }
+                        }
+                }
+                while (i < m_len && at(i) != '\n') {
+                        i++;
+                }
+                return i;
+        }
+
+        @Override
+        public String slice(int begin, int end) {
+                if (m_chars != null) {
+                        return new String(m_chars, begin, end - begin);
+                }
+                char[] s = new char[end - begin];
+                for (int i = 0; i < s.length; i++) {
+                        s[i] = (char) m_bytes.get(begin + i);
+                }
+                return new String(s);
+        }
+
+        @Override
+        public void close() {
+                // The channel was closed once the file was mapped.
+        }
+}
@@ -0,0 +1,145 @@
+/*
+ * Copyright (C) 2017 davis
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package crux;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Compilation wide intern pool of identifier names.
+ * Every distinct name is stored once and given a dense integer id, starting from 0,
+ * so that later passes can compare and index names by id.
+ * @author davis
+ */
+public class NameTable {
+
+        /**
+         * Id of no name.
+         */
+        public static final int NONE = -1;
+
+        private String[]        m_names = new String[64];
+        private int[]           m_hashes = new int[64];
+        private int             m_size = 0;
+        // Open addressing slots holding id + 1, 0 for an empty slot.
+        private int[]           m_slots = new int[128];
+
+        /**
+         * @param s name.
+         * @return id of s, allocated on first sight.
+         */
+        public int intern(CharSequence s) {
+                int len = s.length();
+                int h = 0;
+                for (int i = 0; i < len; i++) {
+                        h = 31*h + s.charAt(i);
+                }
+                int mask = m_slots.length - 1;
+                for (int slot = mix(h) & mask; ; slot = (slot + 1) & mask) {
+                        int id = m_slots[slot] - 1;
+                        if (id == NONE) {
+                                return add(s.toString(), h, slot);
+                        }
+                        if (m_hashes[id] == h && m_names[id].contentEquals(s)) {
+                                return id;
+                        }
+                }
+        }
+
+        /**
+         * @param src source text.
+         * @param begin absolute offset of the name.
+         * @param end absolute offset past the name.
+         * @return id of the name, allocated on first sight.
+         * @throws IOException
+         */
+        public int intern(ISource src, int begin, int end) throws IOException {
+                int h = 0;
+                for (int i = begin; i < end; i++) {
+                        h = 31*h + src.at(i);
+                }
+                int mask = m_slots.length - 1;
+                for (int slot = mix(h) & mask; ; slot = (slot + 1) & mask) {
+                        int id = m_slots[slot] - 1;
+                        if (id == NONE) {
+                                return add(src.slice(begin, end), h, slot);
+                        }
+                        if (m_hashes[id] == h && equals(m_names[id], src, begin, end)) {
+                                return id;
+                        }
+                }
+        }
+
+        /**
+         * @param id name id.
+         * @return the interned name.
+         */
+        public String name(int id) {
+                return m_names[id];
+        }
+
+        /**
+         * @return number of distinct names.
+         */
+        public int size() {
+                return m_size;
+        }
+
+        private static int mix(int h) {
+                return h ^ (h >>> 16);
+        }
+
+        private static boolean equals(String name, ISource src, int begin, int end) throws IOException {
+                if (name.length() != end - begin) {
+                        return false;
+                }
+                for (int i = 0; i < name.length(); i++) {
+                        if (name.charAt(i) != src.at(begin + i)) {
+                                return false;
+                        }
+                }
+                return true;
+        }
+
+        private int add(String name, int h, int slot) {
+                int id = m_size++;
+                if (id == m_names.length) {
+                        m_names = Arrays.copyOf(m_names, id*2);
+                        m_hashes = Arrays.copyOf(m_hashes, id*2);
+                }
+                m_names[id] = name;
+                m_hashes[id] = h;
+                m_slots[slot] = id + 1;
+                if (m_size*2 > m_slots.length) {
+                        rehash();
+                }
+                return id;
+        }
+
+        private void rehash() {
+                m_slots = new int[m_slots.length*2];
+                int mask = m_slots.length - 1;
+                for (int id = 0; id < m_size; id++) {
+                        int slot = mix(m_hashes[id]) & mask;
+                        while (m_slots[slot] != 0) {
+                                slot = (slot + 1) & mask;
+                        }
+                        m_slots[slot] = id + 1;
+                }
+        }
+}
@@ -0,0 +1,162 @@
+/*
+ * Copyright (C) 2017 davis
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package crux;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * Parse the top level declarations of a token buffer in parallel.
+ * A split pass cuts the tokens before every declaration keyword outside braces, and
+ * runs of declarations are parsed on a pool, each by its own parser, then attached to
+ * one declaration list in source order. A declaration that parsed without error parses
+ * the same wherever the declaration list is at top level, so when every run parsed
+ * without error and ended where the next one starts, the tree is the one of a
+ * sequential parse. Otherwise the tokens are parsed again sequentially, which reports
+ * the syntax errors.
+ * @author davis
+ */
+public class ParallelParser implements IParser {
+
+        // Tokens below which a run is not worth a task.
+        private static final int        MIN_RUN = 1 << 14;
+        // Runs per thread, so that uneven ones still balance.
+        private static final int        RUNS_PER_THREAD = 4;
+
+        private final ForkJoinPool      m_pool;
+
+        /**
+         * @param pool where runs of declarations are parsed.
+         */
+        public ParallelParser(ForkJoinPool pool) {
+                m_pool = pool;
+        }
+
+        /**
+         * A scanner has no split pass, so it is parsed sequentially.
+         */
+        @Override
+        public void parse(IScanner s, AST ast, ParseTree pt) throws ErrorReport {
+                new ParserRecursiveDescent().parse(s, ast, pt);
+        }
+
+        @Override
+        public void parse(TokenBuffer toks, AST ast, ParseTree pt) throws ErrorReport {
+                int[] cuts = pt == null ? split(toks, m_pool.getParallelism()) : null;
+                if (cuts == null || cuts.length < 3 || !parse_runs(toks, ast, cuts)) {
+                        new ParserRecursiveDescent().parse(toks, ast, pt);
+                }
+        }
+
+        /**
+         * @param toks tokens of the whole source.
+         * @param threads parallelism of the pool.
+         * @return ascending token indices of where the runs start, from 0, followed by the
+         *         index of EOF.
+         */
+        static int[] split(TokenBuffer toks, int threads) {
+                int eof = toks.size() - 1;
+                int run = Math.max(MIN_RUN, eof/(threads*RUNS_PER_THREAD));
+                List<Integer> cuts = new ArrayList<>();
+                cuts.add(0);
+                int depth = 0;
+                for (int i = 0; i < eof; i++) {
+                        switch (toks.type(i)) {
+                                case OPEN_BRACE:
+                                        depth++;
+                                        break;
+                                case CLOSE_BRACE:
+                                        depth = Math.max(0, depth - 1);
+                                        break;
+                                case VAR:
+                                case FUNC:
+                                case ARRAY:
+                                        if (depth == 0 && i - cuts.get(cuts.size() - 1) >= run
+                                            && eof - i >= run/2) {
+                                                cuts.add(i);
+                                        }
+                                        break;
+                        }
+                }
+                cuts.add(eof);
+
+                int[] a = new int[cuts.size()];
+                for (int i = 0; i < a.length; i++) {
+                        a[i] = cuts.get(i);
+                }
+                return a;
+        }
+
+        /**
+         * @return if every run parsed without error up to where the next one starts.
+         */
+        private boolean parse_runs(TokenBuffer toks, AST ast, int[] cuts) {
+                int runs = cuts.length - 1;
+                List<ForkJoinTask<Declarations>> tasks = new ArrayList<>();
+                for (int r = 1; r < runs; r++) {
+                        int begin = cuts[r];
+                        int[] stops = r + 1 < runs ? new int[] {cuts[r + 1]} : new int[0];
+                        tasks.add(start(() -> parse_run(toks, new AST(), begin, stops)));
+                }
+                Declarations first = parse_run(toks, ast, 0, new int[] {cuts[1]});
+
+                boolean clean = first != null;
+                List<Declarations> rest = new ArrayList<>();
+                for (ForkJoinTask<Declarations> task : tasks) {
+                        Declarations decls = task.join();
+                        clean &= decls != null;
+                        rest.add(decls);
+                }
+                if (!clean) {
+                        return false;
+                }
+
+                ASTNode root = ast.get_root();
+                int id = first.size();
+                for (Declarations decls : rest) {
+                        for (int i = 0; i < decls.size(); i++) {
+                                decls.node(i).attach(root, id++);
+                        }
+                }
+                return true;
+        }
+
+        /**
+         * @return the declarations of the run, or null if it had a syntax error or did not
+         *         end at the first stop, or at EOF without one.
+         */
+        private static Declarations parse_run(TokenBuffer toks, AST ast, int begin, int[] stops) {
+                Declarations decls = new Declarations();
+                int stop = new ParserRecursiveDescent().reparse(toks, ast, begin, 0, stops, decls);
+                return stop == 0 && decls.all_clean() ? decls : null;
+        }
+
+        // Fork into the current pool when already running on one, as in a batch.
+        private ForkJoinTask<Declarations> start(Callable<Declarations> run) {
+                ForkJoinTask<Declarations> task = ForkJoinTask.adapt(run);
+                if (ForkJoinTask.inForkJoinPool()) {
+                        task.fork();
+                } else {
+                        m_pool.execute(task);
+                }
+                return task;
+        }
+}
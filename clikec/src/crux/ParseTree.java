@@ -17,6 +17,11 @@
  */
 package crux;
 
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+
 /**
  * @author davis
  */
@@ -33,43 +38,46 @@ public class ParseTree {
                 return m_root;
         }
         
-        private void print_node(NonTerminal nonterminal, int depth, StringBuilder pb) {
-
-                String node_data = new String();
-                for (int i = 0; i < depth; i++) {
-                        node_data += "  ";
+        /**
+         * Print the tree a line per node, as the tst_parser expectations are.
+         * @param out where the tree is written; not flushed.
+         * @throws IOException
+         */
+        public void write(Writer out) throws IOException {
+                if (m_root == null) {
+                        return;
                 }
-                node_data += nonterminal.toString();
-                pb.append(node_data).append("\n");
-        }
-        
-        private void print_node(Token terminal, int depth, StringBuilder pb) {
+                TreePrinter printer = new TreePrinter(out);
+                try {
+                        m_root.walk(new GeneralNode.Visitor() {
+                                @Override
+                                public boolean pre(GeneralNode node, int depth) {
+                                        try {
+                                                printer.line(depth, node.get_element().toString());
+                                        } catch (IOException e) {
+                                                throw new UncheckedIOException(e);
+                                        }
+                                        return true;
+                                }
 
-                String node_data = new String();
-                for (int i = 0; i < depth; i++) {
-                        node_data += "  ";
+                                @Override
+                                public void post(GeneralNode node, int depth) {
+                                }
+                        });
+                } catch (UncheckedIOException e) {
+                        throw e.getCause();
                 }
-                node_data += terminal.toString();
-                pb.append(node_data).append("\n");
         }
 
-        private void to_string(GeneralNode node, int depth, StringBuilder pb) {
-                if (node == null)
-                        return;
-                if (node.get_element().is(SyntacticElement.Type.Terminal)) {
-                        print_node((Token) node.get_element(), depth, pb);
-                } else {
-                        print_node((NonTerminal) node.get_element(), depth, pb);
-                }
-                for (int i = 0; i < node.children_size(); i ++) {
-                        to_string((GeneralNode) node.get_child(i), depth + 1, pb);
-                }
-        }
-        
         @Override
         public String toString() {
-                StringBuilder pb = new StringBuilder();
-                to_string(m_root, 0, pb);
+                StringWriter pb = new StringWriter();
+                try {
+                        write(pb);
+                } catch (IOException e) {
+                        // A StringWriter does not fail.
+                        throw new IllegalStateException(e);
+                }
                 return pb.toString();
         }
 }
@@ -19,9 +19,9 @@ package crux;
 
 import java.io.IOException;
 import java.util.ArrayList;
-import java.util.HashSet;
+import java.util.Arrays;
+import java.util.EnumSet;
 import java.util.List;
-import java.util.Set;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -33,11 +33,81 @@ import java.util.logging.Logger;
  */
 public class ParserRecursiveDescent implements IParser {
 
+	// FIRST sets of the grammar rules and operator alternatives. A statement
+	// cannot start with "array".
+	private static final EnumSet<Token.Lexeme> FIRST_LITERAL = EnumSet.of(
+		Token.Lexeme.INTEGER, Token.Lexeme.FLOAT, Token.Lexeme.TRUE, Token.Lexeme.FALSE);
+	private static final EnumSet<Token.Lexeme> FIRST_OP0 = EnumSet.of(
+		Token.Lexeme.GREATER_EQUAL, Token.Lexeme.LESSER_EQUAL, Token.Lexeme.NOT_EQUAL,
+		Token.Lexeme.EQUAL, Token.Lexeme.LESS_THAN, Token.Lexeme.GREATER_THAN);
+	private static final EnumSet<Token.Lexeme> FIRST_OP1 = EnumSet.of(
+		Token.Lexeme.ADD, Token.Lexeme.SUB, Token.Lexeme.OR);
+	private static final EnumSet<Token.Lexeme> FIRST_OP2 = EnumSet.of(
+		Token.Lexeme.MUL, Token.Lexeme.DIV, Token.Lexeme.AND);
+	private static final EnumSet<Token.Lexeme> FIRST_EXPRESSION = EnumSet.of(
+		Token.Lexeme.NOT, Token.Lexeme.OPEN_PAREN, Token.Lexeme.IDENTIFIER, Token.Lexeme.CALL,
+		Token.Lexeme.INTEGER, Token.Lexeme.FLOAT, Token.Lexeme.TRUE, Token.Lexeme.FALSE);
+	private static final EnumSet<Token.Lexeme> FIRST_STATEMENT = EnumSet.of(
+		Token.Lexeme.VAR, Token.Lexeme.CALL, Token.Lexeme.LET,
+		Token.Lexeme.IF, Token.Lexeme.WHILE, Token.Lexeme.RETURN);
+	private static final EnumSet<Token.Lexeme> FIRST_DECLARATION = EnumSet.of(
+		Token.Lexeme.VAR, Token.Lexeme.FUNC, Token.Lexeme.ARRAY);
+
+	// Error recovery: tokens a statement list resumes at, and tokens that end a
+	// statement list. A function always starts at top level.
+	private static final EnumSet<Token.Lexeme> SYNC_STATEMENT = EnumSet.of(
+		Token.Lexeme.SEMICOLON, Token.Lexeme.CLOSE_BRACE,
+		Token.Lexeme.VAR, Token.Lexeme.CALL, Token.Lexeme.LET,
+		Token.Lexeme.IF, Token.Lexeme.WHILE, Token.Lexeme.RETURN);
+	private static final EnumSet<Token.Lexeme> END_STATEMENT_LIST = EnumSet.of(
+		Token.Lexeme.CLOSE_BRACE, Token.Lexeme.FUNC, Token.Lexeme.EOF);
+
 	private Token m_curr_tok;
+	private FilePointer m_curr_pos;
 	private IScanner m_scanner;
+	private TokenBuffer m_toks;
+	private int m_tok_i;
 	private StringBuilder m_err_buf;
 	private boolean m_build_pt = false;
 
+	// Tokens consumed so far, statement blocks open at the current token, and the
+	// location of the first syntax error and the count at the last one.
+	private int m_advances;
+	private int m_depth;
+	private FilePointer m_first_err;
+	private int m_err_at;
+
+	// Partial parses: token indices where declarations parsed apart start, the next
+	// one to reach, and the extent of every declaration parsed. See reparse().
+	private static final int[] NO_STOPS = new int[0];
+	private int[] m_stops = NO_STOPS;
+	private int m_stop_i;
+	private Declarations m_units;
+
+	// Pending rules of the expression parser, see expression(): kind, up to three
+	// nodes, flags, a counter and up to three parse tree nodes per frame.
+	private static final int EXPR = 0;
+	private static final int PAREN = 1;
+	private static final int INDEX = 2;
+	private static final int ARGS = 3;
+	// Flags of an EXPR frame parsing the right operand of an op1, or of the op0.
+	private static final int RHS1 = 1;
+	private static final int RHS0 = 2;
+	private int[] m_frame_kind = new int[64];
+	private ASTNode[] m_frame_a = new ASTNode[64];
+	private ASTNode[] m_frame_b = new ASTNode[64];
+	private ASTNode[] m_frame_c = new ASTNode[64];
+	private int[] m_frame_flags = new int[64];
+	private int[] m_frame_n = new int[64];
+	private GeneralNode[] m_frame_pt0 = new GeneralNode[64];
+	private GeneralNode[] m_frame_pt1 = new GeneralNode[64];
+	private GeneralNode[] m_frame_pt2 = new GeneralNode[64];
+	private int m_frames = 0;
+	// Pending rules of the statement parser, see statement_block(), on the same frames.
+	private static final int BLOCK = 4;
+	private static final int IF_ELSE = 5;
+	private int[] m_frame_depth = new int[64];
+
 	private class QuitParseException extends RuntimeException {
 
 		private static final long serialVersionUID = 1L;
@@ -48,41 +118,126 @@ public class ParserRecursiveDescent implements IParser {
 	}
 
 	private String report_syntax_error(NonTerminal.Type nt) {
-		String message = "SyntaxError(" + m_curr_tok.file_pointer().line_no() + ","
-			+ m_curr_tok.file_pointer().column()
+		String message = "SyntaxError(" + (curr_pos().line_no() + 1) + ","
+			+ curr_pos().column()
 			+ ")[Expected a token from " + nt.toString()
-			+ " but got " + m_curr_tok.type() + ".]";
-		m_err_buf.append(message).append("\n");
+			+ " but got " + curr_type() + ".]";
+		log_syntax_error(message);
 		return message;
 	}
 
 	private String report_syntax_error(Token.Lexeme type) {
-		String message = "SyntaxError(" + m_curr_tok.file_pointer().line_no() + ","
-			+ m_curr_tok.file_pointer().column()
-			+ ")[Expected " + type + " but got " + m_curr_tok.type() + ".]";
-		m_err_buf.append(message).append("\n");
+		String message = "SyntaxError(" + (curr_pos().line_no() + 1) + ","
+			+ curr_pos().column()
+			+ ")[Expected " + type + " but got " + curr_type() + ".]";
+		log_syntax_error(message);
 		return message;
 	}
 
+	// Enclosing rules may fail again at the token an error was reported at, which
+	// is reported only once.
+	private void log_syntax_error(String message) {
+		if (m_err_at == m_advances) {
+			return;
+		}
+		if (m_first_err == null) {
+			m_first_err = curr_pos();
+		}
+		m_err_at = m_advances;
+		m_err_buf.append(message).append("\n");
+	}
+
+	// Panic mode: skip up to a token of sync in a block no deeper than depth, keeping
+	// track of the blocks skipped on the way, or up to the next function or EOF.
+	private void skip_to(EnumSet<Token.Lexeme> sync, int depth) throws IOException {
+		while (!have(Token.Lexeme.EOF) && !have(Token.Lexeme.FUNC)
+		       && !(m_depth <= depth && have(sync))) {
+			if (have(Token.Lexeme.OPEN_BRACE)) {
+				m_depth++;
+			} else if (have(Token.Lexeme.CLOSE_BRACE)) {
+				m_depth--;
+			}
+			advance();
+		}
+	}
+
+	// Resume a statement list of the block at depth past the next ";", or at its
+	// next statement or "}".
+	private void recover_statement(int depth) throws IOException {
+		skip_to(SYNC_STATEMENT, depth);
+		if (m_depth <= depth) {
+			accept(Token.Lexeme.SEMICOLON);
+		}
+	}
+
+	// Resume the declaration list at the next top level declaration.
+	private void recover_declaration() throws IOException {
+		skip_to(FIRST_DECLARATION, 0);
+		m_depth = 0;
+	}
+
+	// Parse tree construction. Without a parse tree to build, parent is null and
+	// nothing is allocated.
+	private GeneralNode pt_child(GeneralNode parent, int id, NonTerminal.Type type) {
+		return m_build_pt ? parent.add_child(id, new NonTerminal(type)) : null;
+	}
+
+	private void pt_token(GeneralNode parent, int id) throws IOException {
+		if (m_build_pt) {
+			parent.add_child(id, curr_tok());
+		}
+	}
+
+	private Token.Lexeme curr_type() {
+		return m_toks != null ? m_toks.type(m_tok_i) : m_curr_tok.type();
+	}
+
+	private FilePointer curr_pos() {
+		if (m_curr_pos == null) {
+			m_curr_pos = m_toks != null ? m_toks.file_pointer(m_tok_i) : m_curr_tok.file_pointer();
+		}
+		return m_curr_pos;
+	}
+
+	private Token curr_tok() throws IOException {
+		if (m_curr_tok == null) {
+			m_curr_tok = m_toks.token(m_tok_i, curr_pos());
+		}
+		return m_curr_tok;
+	}
+
+	private void advance() throws IOException {
+		m_advances++;
+		m_curr_pos = null;
+		if (m_toks != null) {
+			m_curr_tok = null;
+			if (m_tok_i + 1 < m_toks.size()) {
+				m_tok_i++;
+			}
+		} else {
+			m_curr_tok = m_scanner.scan_next();
+		}
+	}
+
 	private boolean have(Token.Lexeme tok) {
-		return m_curr_tok.type() == tok;
+		return curr_type() == tok;
 	}
 
-	private boolean have(Set<Token.Lexeme> toks) {
-		return toks.contains(m_curr_tok.type());
+	private boolean have(EnumSet<Token.Lexeme> toks) {
+		return toks.contains(curr_type());
 	}
 
 	private boolean accept(Token.Lexeme tok) throws IOException {
 		if (have(tok)) {
-			m_curr_tok = m_scanner.scan_next();
+			advance();
 			return true;
 		}
 		return false;
 	}
 
-	private boolean accept(Set<Token.Lexeme> toks) throws IOException {
+	private boolean accept(EnumSet<Token.Lexeme> toks) throws IOException {
 		if (have(toks)) {
-			m_curr_tok = m_scanner.scan_next();
+			advance();
 			return true;
 		}
 		return false;
@@ -97,7 +252,7 @@ public class ParserRecursiveDescent implements IParser {
 	}
 
 	private boolean expect(NonTerminal.Type nt,
-		Set<Token.Lexeme> toks) throws IOException {
+		EnumSet<Token.Lexeme> toks) throws IOException {
 		if (accept(toks)) {
 			return true;
 		}
@@ -108,64 +263,48 @@ public class ParserRecursiveDescent implements IParser {
 	// literal := INTEGER | FLOAT | TRUE | FALSE .
 	private void literal(ASTNode literal_node, GeneralNode node) throws IOException {
 		List<Token> symbols = new ArrayList<>();
-		symbols.add(m_curr_tok);
+		symbols.add(curr_tok());
                 
                 AbstractMetaData meta;
-		FilePointer pos = m_curr_tok.file_pointer();
-		switch (m_curr_tok.type()) {
+		FilePointer pos = curr_pos();
+		switch (curr_type()) {
 			case INTEGER:
                                 meta = new AbstractMetaData(AbstractMetaData.Type.LiteralInt, pos, symbols);
-                                meta.set_type(new StaticType("int"));
+                                meta.set_type(StaticType.INT);
 				literal_node.set_element(meta);
 				break;
 			case FLOAT:
                                 meta = new AbstractMetaData(AbstractMetaData.Type.LiteralFloat, pos, symbols);
-                                meta.set_type(new StaticType("float"));
+                                meta.set_type(StaticType.FLOAT);
 				literal_node.set_element(meta);
 				break;
 			case TRUE:
 			case FALSE:
                                 meta = new AbstractMetaData(AbstractMetaData.Type.LiteralFloat, pos, symbols);
-                                meta.set_type(new StaticType("bool"));
+                                meta.set_type(StaticType.BOOL);
 				literal_node.set_element(meta);
 				break;
 		}
 		
-		node.add_child(0, m_curr_tok);
-		expect(NonTerminal.Type.LITERAL, new HashSet() {
-			{
-				add(Token.Lexeme.INTEGER);
-				add(Token.Lexeme.FLOAT);
-				add(Token.Lexeme.TRUE);
-				add(Token.Lexeme.FALSE);
-			}
-		});
+		pt_token(node, 0);
+		expect(NonTerminal.Type.LITERAL, FIRST_LITERAL);
 	}
 
 	// op0 := ">=" | "<=" | "!=" | "==" | ">" | "<" 
 	private void op0(ASTNode op_node, GeneralNode node) throws IOException {
-		FilePointer pos = m_curr_tok.file_pointer();
+		FilePointer pos = curr_pos();
 		List<Token> symbols = new ArrayList<>();
-		symbols.add(m_curr_tok);
+		symbols.add(curr_tok());
 		op_node.set_element(new AbstractMetaData(AbstractMetaData.Type.Comparison, pos, symbols));
 		
-		node.add_child(0, m_curr_tok);
-		expect(NonTerminal.Type.OP0, new HashSet() {
-			{
-				add(Token.Lexeme.GREATER_EQUAL);
-				add(Token.Lexeme.LESSER_EQUAL);
-				add(Token.Lexeme.NOT_EQUAL);
-				add(Token.Lexeme.EQUAL);
-				add(Token.Lexeme.LESS_THAN);
-				add(Token.Lexeme.GREATER_THAN);
-			}
-		});
+		pt_token(node, 0);
+		expect(NonTerminal.Type.OP0, FIRST_OP0);
 	}
 
 	// op1 := "+" | "-" | "or" .
 	private void op1(ASTNode op_node, GeneralNode node) throws IOException {
-		FilePointer pos = m_curr_tok.file_pointer();
-		switch (m_curr_tok.type()) {
+		FilePointer pos = curr_pos();
+		switch (curr_type()) {
 			case ADD:
 				op_node.set_element(new AbstractMetaData(AbstractMetaData.Type.Addition, pos));
 				break;
@@ -177,20 +316,14 @@ public class ParserRecursiveDescent implements IParser {
 				break;
 		}
 
-		node.add_child(0, m_curr_tok);
-		expect(NonTerminal.Type.OP1, new HashSet() {
-			{
-				add(Token.Lexeme.ADD);
-				add(Token.Lexeme.SUB);
-				add(Token.Lexeme.OR);
-			}
-		});
+		pt_token(node, 0);
+		expect(NonTerminal.Type.OP1, FIRST_OP1);
 	}
 
 	// op2 := "*" | "/" | "and" .
 	private void op2(ASTNode op_node, GeneralNode node) throws IOException {
-		FilePointer pos = m_curr_tok.file_pointer();
-		switch (m_curr_tok.type()) {
+		FilePointer pos = curr_pos();
+		switch (curr_type()) {
 			case MUL:
 				op_node.set_element(new AbstractMetaData(AbstractMetaData.Type.Multiplication, pos));
 				break;
@@ -202,264 +335,311 @@ public class ParserRecursiveDescent implements IParser {
 				break;
 		}
 		
-		node.add_child(0, m_curr_tok);
-		expect(NonTerminal.Type.OP1, new HashSet() {
-			{
-				add(Token.Lexeme.MUL);
-				add(Token.Lexeme.DIV);
-				add(Token.Lexeme.AND);
-			}
-		});
+		pt_token(node, 0);
+		expect(NonTerminal.Type.OP1, FIRST_OP2);
 	}
 
-	// expression0 := expression1 [ op0 expression1 ] .
-	private ASTNode expression0(ASTNode expr_node, GeneralNode node) throws IOException {
-		expr_node = expression1(expr_node, node.add_child(0, new NonTerminal(NonTerminal.Type.EXPRESSION1)));
-
-		ASTNode lhs = expr_node;
-		if (have(new HashSet() {
-			{
-				add(Token.Lexeme.GREATER_EQUAL);
-				add(Token.Lexeme.LESSER_EQUAL);
-				add(Token.Lexeme.NOT_EQUAL);
-				add(Token.Lexeme.EQUAL);
-				add(Token.Lexeme.LESS_THAN);
-				add(Token.Lexeme.GREATER_THAN);
-			}
-		})) {
-			ASTNode op = new ASTNode((ASTNode) lhs.get_parent(), m_curr_tok.file_pointer(), lhs.get_id());
-			lhs.set_parent(op);
-			((ASTNode) op.get_parent()).set_child(op.get_id(), op);
-			
-			op.set_child(0, lhs);
-			op0(op, node.add_child(1, new NonTerminal(NonTerminal.Type.OP0)));
-			expression1(op.make_child(1, m_curr_tok.file_pointer()), 
-                                    node.add_child(2, new NonTerminal(NonTerminal.Type.EXPRESSION1)));
-			
-			lhs = op;
-		}
-		return lhs;
+	// Put a new node in the place of lhs in its parent, with lhs as its first child.
+	private ASTNode insert_parent(ASTNode lhs) {
+		ASTNode op = new ASTNode((ASTNode) lhs.get_parent(), curr_pos(), lhs.get_id());
+		lhs.set_parent(op);
+		((ASTNode) op.get_parent()).set_child(op.get_id(), op);
+		op.set_child(0, lhs);
+		return op;
 	}
 
-	// expression1 := expression2 { op1 expression2 } .
-	private ASTNode expression1(ASTNode expr_node, GeneralNode node) throws IOException {
-		expr_node = expression2(expr_node, node.add_child(0, new NonTerminal(NonTerminal.Type.EXPRESSION2)));
-		
-		ASTNode lhs = expr_node;
-		int i_child = 1;
-		while (have(new HashSet<Token.Lexeme>() {
-			{
-				add(Token.Lexeme.ADD);
-				add(Token.Lexeme.SUB);
-				add(Token.Lexeme.OR);
-			}
-		})) {
-			ASTNode op = new ASTNode((ASTNode) lhs.get_parent(), m_curr_tok.file_pointer(), lhs.get_id());
-			lhs.set_parent(op);
-			((ASTNode) op.get_parent()).set_child(op.get_id(), op);
-			
-			op.set_child(0, lhs);
-			op1(op, node.add_child(i_child, new NonTerminal(NonTerminal.Type.OP1)));
-			expression2(op.make_child(1, m_curr_tok.file_pointer()), 
-                                    node.add_child(i_child + 1, new NonTerminal(NonTerminal.Type.EXPRESSION2)));
-			
-			lhs = op;
-			i_child += 2;
+	private void push_frame(int kind, ASTNode a, ASTNode c, int n, GeneralNode pt) {
+		if (m_frames == m_frame_kind.length) {
+			int cap = m_frames*2;
+			m_frame_kind = Arrays.copyOf(m_frame_kind, cap);
+			m_frame_a = Arrays.copyOf(m_frame_a, cap);
+			m_frame_b = Arrays.copyOf(m_frame_b, cap);
+			m_frame_c = Arrays.copyOf(m_frame_c, cap);
+			m_frame_flags = Arrays.copyOf(m_frame_flags, cap);
+			m_frame_n = Arrays.copyOf(m_frame_n, cap);
+			m_frame_depth = Arrays.copyOf(m_frame_depth, cap);
+			m_frame_pt0 = Arrays.copyOf(m_frame_pt0, cap);
+			m_frame_pt1 = Arrays.copyOf(m_frame_pt1, cap);
+			m_frame_pt2 = Arrays.copyOf(m_frame_pt2, cap);
 		}
-		return lhs;
+		m_frame_kind[m_frames] = kind;
+		m_frame_a[m_frames] = a;
+		m_frame_b[m_frames] = null;
+		m_frame_c[m_frames] = c;
+		m_frame_flags[m_frames] = 0;
+		m_frame_n[m_frames] = n;
+		m_frame_pt0[m_frames] = pt;
+		m_frame_pt1[m_frames] = null;
+		m_frame_pt2[m_frames] = null;
+		m_frames++;
 	}
 
-	// expression2 := expression3 { op2 expression3 } .
-	private ASTNode expression2(ASTNode expr_node, GeneralNode node) throws IOException {
-		expression3(expr_node, node.add_child(0, new NonTerminal(NonTerminal.Type.EXPRESSION3)));
-
-		ASTNode lhs = expr_node;
-		int i_child = 1;
-		while (have(new HashSet<Token.Lexeme>() {
-			{
-				add(Token.Lexeme.MUL);
-				add(Token.Lexeme.DIV);
-				add(Token.Lexeme.AND);
-			}
-		})) {
-			ASTNode op = new ASTNode((ASTNode) lhs.get_parent(), m_curr_tok.file_pointer(), lhs.get_id());
-			lhs.set_parent(op);
-			((ASTNode) op.get_parent()).set_child(op.get_id(), op);
-			
-			op.set_child(0, lhs);
-			op2(op, node.add_child(i_child, new NonTerminal(NonTerminal.Type.OP2)));
-			expression3(op.make_child(1, m_curr_tok.file_pointer()), 
-                                    node.add_child(i_child + 1, new NonTerminal(NonTerminal.Type.EXPRESSION3)));
-
-			lhs = op;
-			i_child += 2;
-		}
-		return lhs;
-	}
-
-	// expression3 := "not" expression3
-	//      | "(" expression0 ")"
-	//      | designator
-	//      | call-expression
-	//      | literal .
-	private void expression3(ASTNode expr_node, GeneralNode node) throws IOException {
-		switch (m_curr_tok.type()) {
-			case NOT:
-				expr_node.set_element(new AbstractMetaData(AbstractMetaData.Type.LogicalNot, m_curr_tok.file_pointer()));
-				node.add_child(0, m_curr_tok);
-				expect(Token.Lexeme.NOT);
-				expression3(expr_node.make_child(0, m_curr_tok.file_pointer()), 
-                                            node.add_child(1, new NonTerminal(NonTerminal.Type.EXPRESSION3)));
-				break;
-			case OPEN_PAREN:
-				node.add_child(0, m_curr_tok);
-				expect(Token.Lexeme.OPEN_PAREN);
+	private void pop_frame() {
+		m_frames--;
+		m_frame_a[m_frames] = null;
+		m_frame_b[m_frames] = null;
+		m_frame_c[m_frames] = null;
+		m_frame_pt0[m_frames] = null;
+		m_frame_pt1[m_frames] = null;
+		m_frame_pt2[m_frames] = null;
+	}
 
-				expression0(expr_node, node.add_child(1, new NonTerminal(NonTerminal.Type.EXPRESSION0)));
+	// Next id of a parse tree node whose children are numbered densely.
+	private static int pt_next(GeneralNode node) {
+		return node == null ? 0 : node.children_size();
+	}
 
-				node.add_child(2, m_curr_tok);
-				expect(Token.Lexeme.CLOSE_PAREN);
-				break;
-			case IDENTIFIER:
-				designator(expr_node, true, node.add_child(0, new NonTerminal(NonTerminal.Type.DESIGNATOR)));
-				break;
-			case CALL:
-				call_expression(expr_node, node.add_child(0, new NonTerminal(NonTerminal.Type.CALL_EXPRESSION)));
-				break;
-			case INTEGER:
-			case FLOAT:
-			case TRUE:
-			case FALSE:
-				literal(expr_node, node.add_child(0, new NonTerminal(NonTerminal.Type.LITERAL)));
-				break;
-			default:
-				expect(NonTerminal.Type.EXPRESSION3,
-					new HashSet<Token.Lexeme>() {
-					{
-						add(Token.Lexeme.NOT);
-						add(Token.Lexeme.OPEN_PAREN);
-						add(Token.Lexeme.IDENTIFIER);
-						add(Token.Lexeme.CALL);
-						add(Token.Lexeme.INTEGER);
-						add(Token.Lexeme.FLOAT);
-						add(Token.Lexeme.TRUE);
-						add(Token.Lexeme.FALSE);
-					}
-				});
-				break;
-		}
+	// An EXPR frame for an expression0 into slot, with the expression1 and expression2
+	// its first operand goes in.
+	private void push_expression(ASTNode slot, GeneralNode node) {
+		push_frame(EXPR, null, slot, 0, node);
+		int f = m_frames - 1;
+		m_frame_pt1[f] = pt_child(node, 0, NonTerminal.Type.EXPRESSION1);
+		m_frame_pt2[f] = pt_child(m_frame_pt1[f], 0, NonTerminal.Type.EXPRESSION2);
 	}
 
-	// expression-list := [ expression0 { "," expression0 } ] .
-	private void expression_list(ASTNode exprl_node, GeneralNode node) throws IOException {
-		exprl_node.set_element(new AbstractMetaData(AbstractMetaData.Type.ExpressionList, m_curr_tok.file_pointer()));
-		if (have(new HashSet<Token.Lexeme>() {
-			{
-				add(Token.Lexeme.INTEGER);
-				add(Token.Lexeme.FLOAT);
-				add(Token.Lexeme.TRUE);
-				add(Token.Lexeme.FALSE);
-
-				add(Token.Lexeme.NOT);
-				add(Token.Lexeme.OPEN_PAREN);
-				add(Token.Lexeme.IDENTIFIER);
-				add(Token.Lexeme.CALL);
-			}
-		})) {
-			exprl_node = expression0(exprl_node.make_child(0, m_curr_tok.file_pointer()), 
-                                                 node.add_child(0, new NonTerminal(NonTerminal.Type.EXPRESSION0)));
-			int i_child = 1;
-			while (have(Token.Lexeme.COMMA)) {
-				node.add_child(i_child, m_curr_tok);
-				expect(Token.Lexeme.COMMA);
-				exprl_node = expression0(exprl_node.make_child(i_child, m_curr_tok.file_pointer()), 
-                                                         node.add_child(i_child + 1, new NonTerminal(NonTerminal.Type.EXPRESSION0)));
-				i_child += 2;
-			}
-		}
+	// expression0 := expression1 [ op0 expression1 ] .
+	// expression1 := expression2 { op1 expression2 } .
+	// expression2 := expression3 { op2 expression3 } .
+	private ASTNode expression0(ASTNode expr_node, GeneralNode node) throws IOException {
+		int base = m_frames;
+		push_expression(expr_node, node);
+		return expression(base, expr_node);
+	}
+
+	// designator := IDENTIFIER { "[" expression0 "]" } .
+	private void designator(ASTNode desi_node, GeneralNode node) throws IOException {
+		int base = m_frames;
+		open_designator(desi_node, node);
+		expression(base, null);
 	}
 
 	// call-expression := "::" IDENTIFIER "(" expression-list ")" .
+	// expression-list := [ expression0 { "," expression0 } ] .
 	private void call_expression(ASTNode call_node, GeneralNode node) throws IOException {
-		FilePointer pos = m_curr_tok.file_pointer();
-		node.add_child(0, m_curr_tok);
+		int base = m_frames;
+		expression(base, open_call(call_node, node));
+	}
+
+	// IDENTIFIER of a designator, and an INDEX frame for its indices.
+	private void open_designator(ASTNode desi_node, GeneralNode node) throws IOException {
+		List<Token> symbols = new ArrayList<>();
+		symbols.add(curr_tok());
+		desi_node.set_element(new AbstractMetaData(AbstractMetaData.Type.AddressOf, curr_pos(), symbols));
+		pt_token(node, 0);
+		expect(Token.Lexeme.IDENTIFIER);
+		push_frame(INDEX, desi_node, null, 0, node);
+	}
+
+	// A call-expression up to its first argument. With arguments, the ARGS and EXPR
+	// frames for them are pushed and the node of the first one is returned, otherwise
+	// the call is complete and null is returned.
+	private ASTNode open_call(ASTNode call_node, GeneralNode node) throws IOException {
+		FilePointer pos = curr_pos();
+		pt_token(node, 0);
 		expect(Token.Lexeme.CALL);
 
 		List<Token> symbols = new ArrayList<>();
-		symbols.add(m_curr_tok);
+		symbols.add(curr_tok());
 		call_node.set_element(new AbstractMetaData(AbstractMetaData.Type.Call, pos, symbols));
-		
-		node.add_child(1, m_curr_tok);
+
+		pt_token(node, 1);
 		expect(Token.Lexeme.IDENTIFIER);
 
-		node.add_child(2, m_curr_tok);
+		pt_token(node, 2);
 		expect(Token.Lexeme.OPEN_PAREN);
 
-		expression_list(call_node.make_child(0, m_curr_tok.file_pointer()), 
-                                node.add_child(3, new NonTerminal(NonTerminal.Type.EXPRESSION_LIST)));
-
-		node.add_child(4, m_curr_tok);
+		GeneralNode list = pt_child(node, 3, NonTerminal.Type.EXPRESSION_LIST);
+		ASTNode exprl_node = call_node.make_child(0, curr_pos());
+		exprl_node.set_element(new AbstractMetaData(AbstractMetaData.Type.ExpressionList, curr_pos()));
+		if (have(FIRST_EXPRESSION)) {
+			ASTNode slot = exprl_node.make_child(0, curr_pos());
+			push_frame(ARGS, null, null, 1, node);
+			m_frame_pt1[m_frames - 1] = list;
+			push_expression(slot, pt_child(list, 0, NonTerminal.Type.EXPRESSION0));
+			return slot;
+		}
+		pt_token(node, 4);
 		expect(Token.Lexeme.CLOSE_PAREN);
+		return null;
 	}
 
-	// designator := IDENTIFIER { "[" expression0 "]" } .
-	private void designator(ASTNode desi_node, boolean is_dereference, GeneralNode node) throws IOException {
-		FilePointer pos = m_curr_tok.file_pointer();
-		
-		if (is_dereference) {
-			desi_node.set_element(new AbstractMetaData(AbstractMetaData.Type.Dereference, pos));
-			desi_node = desi_node.make_child(0, m_curr_tok.file_pointer());
-		}
-		
-		List<Token> symbols = new ArrayList<>();
-		symbols.add(m_curr_tok);
-		desi_node.set_element(new AbstractMetaData(AbstractMetaData.Type.AddressOf, m_curr_tok.file_pointer(), symbols));
-		
-		node.add_child(0, m_curr_tok);
-		expect(Token.Lexeme.IDENTIFIER);
-
-		ASTNode lhs = desi_node;
-		int i_child = 1;
-		while (have(Token.Lexeme.OPEN_BRACKET)) {
-			node.add_child(i_child, m_curr_tok);
-			expect(Token.Lexeme.OPEN_BRACKET);
-
-			ASTNode index = new ASTNode((ASTNode) lhs.get_parent(), m_curr_tok.file_pointer(), lhs.get_id());
-			lhs.set_parent(index);
-			((ASTNode) index.get_parent()).set_child(index.get_id(), index);
-			
-			index.set_child(0, lhs);
-			index.set_element(new AbstractMetaData(AbstractMetaData.Type.Index, m_curr_tok.file_pointer()));
-			expression0(index.make_child(1, m_curr_tok.file_pointer()), 
-                                    node.add_child(i_child + 1, new NonTerminal(NonTerminal.Type.EXPRESSION0)));
-
-			node.add_child(i_child + 2, m_curr_tok);
-			expect(Token.Lexeme.CLOSE_BRACKET);
-			i_child += 3;
-			
-			lhs = index;
+	// The expression rules by precedence climbing over an explicit stack: nesting
+	// costs a frame of the arrays above instead of several Java frames per level, and
+	// cannot overflow the stack. Runs the frames above base, slot being where the
+	// operand of the EXPR frame on top goes, or null if the frame on top is not
+	// waiting for one. The parse tree is built as the grammar above derives it.
+	// An EXPR frame holds the left operands of op0, op1 and op2 in a, b and c, and
+	// its expression0, current expression1 and current expression2 in pt0 to pt2.
+	// A PAREN frame holds the expression3 in pt0. An INDEX frame holds the designator
+	// and the pending Index node in a and b, and the parse tree designator in pt0.
+	// An ARGS frame holds the last argument and the next child id in a and n, and the
+	// call-expression and expression-list in pt0 and pt1.
+	private ASTNode expression(int base, ASTNode slot) throws IOException {
+		try {
+			ASTNode ret = null;
+			boolean operand = slot != null;
+			while (m_frames > base) {
+				if (operand) {
+					// expression3 := "not" expression3
+					//      | "(" expression0 ")"
+					//      | designator
+					//      | call-expression
+					//      | literal .
+					GeneralNode pt2 = m_frame_pt2[m_frames - 1];
+					GeneralNode node = pt_child(pt2, pt_next(pt2), NonTerminal.Type.EXPRESSION3);
+					while (have(Token.Lexeme.NOT)) {
+						slot.set_element(new AbstractMetaData(AbstractMetaData.Type.LogicalNot, curr_pos()));
+						pt_token(node, 0);
+						expect(Token.Lexeme.NOT);
+						slot = slot.make_child(0, curr_pos());
+						node = pt_child(node, 1, NonTerminal.Type.EXPRESSION3);
+					}
+					switch (curr_type()) {
+						case OPEN_PAREN:
+							pt_token(node, 0);
+							expect(Token.Lexeme.OPEN_PAREN);
+							push_frame(PAREN, null, null, 0, node);
+							push_expression(slot, pt_child(node, 1, NonTerminal.Type.EXPRESSION0));
+							continue;
+						case IDENTIFIER:
+							slot.set_element(new AbstractMetaData(AbstractMetaData.Type.Dereference, curr_pos()));
+							open_designator(slot.make_child(0, curr_pos()),
+									pt_child(node, 0, NonTerminal.Type.DESIGNATOR));
+							break;
+						case CALL:
+							slot = open_call(slot, pt_child(node, 0, NonTerminal.Type.CALL_EXPRESSION));
+							if (slot != null) {
+								continue;
+							}
+							break;
+						case INTEGER:
+						case FLOAT:
+						case TRUE:
+						case FALSE:
+							literal(slot, pt_child(node, 0, NonTerminal.Type.LITERAL));
+							break;
+						default:
+							expect(NonTerminal.Type.EXPRESSION3, FIRST_EXPRESSION);
+							break;
+					}
+					operand = false;
+				}
+
+				int f = m_frames - 1;
+				switch (m_frame_kind[f]) {
+					case EXPR:
+						if (have(FIRST_OP2)) {
+							ASTNode op = insert_parent(m_frame_c[f]);
+							op2(op, pt_child(m_frame_pt2[f], pt_next(m_frame_pt2[f]), NonTerminal.Type.OP2));
+							m_frame_c[f] = op;
+							slot = op.make_child(1, curr_pos());
+							operand = true;
+							continue;
+						}
+						if ((m_frame_flags[f] & RHS1) == 0) {
+							m_frame_b[f] = m_frame_c[f];
+						}
+						if (have(FIRST_OP1)) {
+							ASTNode op = insert_parent(m_frame_b[f]);
+							op1(op, pt_child(m_frame_pt1[f], pt_next(m_frame_pt1[f]), NonTerminal.Type.OP1));
+							m_frame_pt2[f] = pt_child(m_frame_pt1[f], pt_next(m_frame_pt1[f]), NonTerminal.Type.EXPRESSION2);
+							m_frame_b[f] = op;
+							slot = op.make_child(1, curr_pos());
+							m_frame_c[f] = slot;
+							m_frame_flags[f] |= RHS1;
+							operand = true;
+							continue;
+						}
+						if ((m_frame_flags[f] & RHS0) == 0) {
+							m_frame_a[f] = m_frame_b[f];
+							if (have(FIRST_OP0)) {
+								ASTNode op = insert_parent(m_frame_a[f]);
+								op0(op, pt_child(m_frame_pt0[f], 1, NonTerminal.Type.OP0));
+								m_frame_pt1[f] = pt_child(m_frame_pt0[f], 2, NonTerminal.Type.EXPRESSION1);
+								m_frame_pt2[f] = pt_child(m_frame_pt1[f], 0, NonTerminal.Type.EXPRESSION2);
+								m_frame_a[f] = op;
+								slot = op.make_child(1, curr_pos());
+								m_frame_c[f] = slot;
+								m_frame_flags[f] = RHS0;
+								operand = true;
+								continue;
+							}
+						}
+						ret = m_frame_a[f];
+						break;
+					case PAREN:
+						pt_token(m_frame_pt0[f], 2);
+						expect(Token.Lexeme.CLOSE_PAREN);
+						break;
+					case INDEX: {
+						GeneralNode node = m_frame_pt0[f];
+						if (m_frame_b[f] != null) {
+							pt_token(node, pt_next(node));
+							expect(Token.Lexeme.CLOSE_BRACKET);
+							m_frame_a[f] = m_frame_b[f];
+							m_frame_b[f] = null;
+						}
+						if (have(Token.Lexeme.OPEN_BRACKET)) {
+							pt_token(node, pt_next(node));
+							expect(Token.Lexeme.OPEN_BRACKET);
+							ASTNode index = insert_parent(m_frame_a[f]);
+							index.set_element(new AbstractMetaData(AbstractMetaData.Type.Index, curr_pos()));
+							m_frame_b[f] = index;
+							slot = index.make_child(1, curr_pos());
+							push_expression(slot, pt_child(node, pt_next(node), NonTerminal.Type.EXPRESSION0));
+							operand = true;
+							continue;
+						}
+						break;
+					}
+					default: {
+						// ARGS, after an argument.
+						GeneralNode list = m_frame_pt1[f];
+						m_frame_a[f] = ret;
+						if (have(Token.Lexeme.COMMA)) {
+							pt_token(list, pt_next(list));
+							expect(Token.Lexeme.COMMA);
+							slot = m_frame_a[f].make_child(m_frame_n[f], curr_pos());
+							m_frame_n[f] += 2;
+							push_expression(slot, pt_child(list, pt_next(list), NonTerminal.Type.EXPRESSION0));
+							operand = true;
+							continue;
+						}
+						pt_token(m_frame_pt0[f], 4);
+						expect(Token.Lexeme.CLOSE_PAREN);
+						break;
+					}
+				}
+				pop_frame();
+			}
+			return ret;
+		} finally {
+			while (m_frames > base) {
+				pop_frame();
+			}
 		}
 	}
 
 	// type := IDENTIFIER .
 	private StaticType type(ASTNode ast_node, GeneralNode node) throws IOException {
-		node.add_child(0, m_curr_tok);
+		pt_token(node, 0);
                 StaticType type = null;
-                switch (m_curr_tok.attribute()) {
+                switch (curr_tok().attribute()) {
                         case "int":
-                                type = new StaticType("int");
+                                type = StaticType.INT;
                                 break;
                         case "float":
-                                type = new StaticType("float");
+                                type = StaticType.FLOAT;
                                 break;
                         case "bool":
-                                type = new StaticType("bool");
+                                type = StaticType.BOOL;
                                 break;
                         case "void":
-                                type = new StaticType("void");
+                                type = StaticType.VOID;
                                 break;
                         default:
-                                type = new StaticType(m_curr_tok.attribute());
+                                type = StaticType.of(curr_tok().attribute());
                                 break;
                 }
 		expect(Token.Lexeme.IDENTIFIER);
@@ -468,47 +648,47 @@ public class ParserRecursiveDescent implements IParser {
 
 	// variable-declaration := "var" IDENTIFIER ":" type ";" .
 	private void variable_declaration(ASTNode var_node, GeneralNode node) throws IOException {
-		FilePointer pos = m_curr_tok.file_pointer();
-		node.add_child(0, m_curr_tok);
+		FilePointer pos = curr_pos();
+		pt_token(node, 0);
 		expect(Token.Lexeme.VAR);
 
 		List<Token> symbols = new ArrayList<>();
-		symbols.add(m_curr_tok);
+		symbols.add(curr_tok());
 		var_node.set_element(new AbstractMetaData(AbstractMetaData.Type.VariableDeclaration,pos, symbols));
 		
-		node.add_child(1, m_curr_tok);
+		pt_token(node, 1);
 		expect(Token.Lexeme.IDENTIFIER);
 
-		node.add_child(2, m_curr_tok);
+		pt_token(node, 2);
 		expect(Token.Lexeme.COLON);
 
-		StaticType type = type(var_node, node.add_child(3, new NonTerminal(NonTerminal.Type.TYPE)));
+		StaticType type = type(var_node, pt_child(node, 3, NonTerminal.Type.TYPE));
                 AbstractMetaData meta = (AbstractMetaData) var_node.get_element();
                 meta.set_type(type);
 
-		node.add_child(4, m_curr_tok);
+		pt_token(node, 4);
 		expect(Token.Lexeme.SEMICOLON);
 	}
 
 	// array-declaration := "array" IDENTIFIER ":" type "[" INTEGER "]" { "[" INTEGER "]" } ";" .
 	private void array_declaration(ASTNode arr_node, GeneralNode node) throws IOException {
-		FilePointer pos = m_curr_tok.file_pointer();
-		node.add_child(0, m_curr_tok);
+		FilePointer pos = curr_pos();
+		pt_token(node, 0);
 		expect(Token.Lexeme.ARRAY);
 
 		
 		List<Token> symbols = new ArrayList<>();
-		symbols.add(m_curr_tok);
+		symbols.add(curr_tok());
 		arr_node.set_element(new AbstractMetaData(AbstractMetaData.Type.ArrayDeclaration, pos, symbols));
 		
-		node.add_child(1, m_curr_tok);
+		pt_token(node, 1);
 		expect(Token.Lexeme.IDENTIFIER);
 
-		node.add_child(2, m_curr_tok);
+		pt_token(node, 2);
 		expect(Token.Lexeme.COLON);
                 
                 
-		StaticType type = type(arr_node, node.add_child(3, new NonTerminal(NonTerminal.Type.TYPE)));
+		StaticType type = type(arr_node, pt_child(node, 3, NonTerminal.Type.TYPE));
 
 		int i_child = 4;
 
@@ -516,14 +696,14 @@ public class ParserRecursiveDescent implements IParser {
 		do {
                         String dim;
                         
-			node.add_child(i_child, m_curr_tok);
+			pt_token(node, i_child);
 			expect(Token.Lexeme.OPEN_BRACKET);
 
-			node.add_child(i_child + 1, m_curr_tok);
-                        arr_dims.add(m_curr_tok.attribute());
+			pt_token(node, i_child + 1);
+                        arr_dims.add(curr_tok().attribute());
 			expect(Token.Lexeme.INTEGER);
                         
-			node.add_child(i_child + 2, m_curr_tok);
+			pt_token(node, i_child + 2);
 			expect(Token.Lexeme.CLOSE_BRACKET);
                         
 
@@ -533,42 +713,42 @@ public class ParserRecursiveDescent implements IParser {
                 
                 // Nesting array.
                 for (int i = arr_dims.size() - 1; i >= 0; i --)
-                        type = new StaticType(type, Integer.parseInt(arr_dims.get(i)));
+                        type = StaticType.array(type, Integer.parseInt(arr_dims.get(i)));
 
                 AbstractMetaData meta = (AbstractMetaData) arr_node.get_element();
                 meta.set_type(type);
                 
-		node.add_child(i_child, m_curr_tok);
+		pt_token(node, i_child);
 		expect(Token.Lexeme.SEMICOLON);
 	}
 
 	// parameter := IDENTIFIER ":" type .
 	private StaticType parameter(ASTNode func_node, GeneralNode node) throws IOException {
 		AbstractMetaData meta = (AbstractMetaData) func_node.get_element();
-		meta.add_token(m_curr_tok);
-		node.add_child(0, m_curr_tok);
+		meta.add_token(curr_tok());
+		pt_token(node, 0);
 		expect(Token.Lexeme.IDENTIFIER);
 
-		node.add_child(1, m_curr_tok);
+		pt_token(node, 1);
 		expect(Token.Lexeme.COLON);
 
-		return type(func_node, node.add_child(2, new NonTerminal(NonTerminal.Type.TYPE)));
+		return type(func_node, pt_child(node, 2, NonTerminal.Type.TYPE));
 	}
 
 	// parameter-list := [ parameter { "," parameter } ] .
 	private List<StaticType> parameter_list(ASTNode ast_node, GeneralNode node) throws IOException {
                 List<StaticType> arg_types = new ArrayList<>();
 		if (have(Token.Lexeme.IDENTIFIER)) {
-			StaticType type = parameter(ast_node, node.add_child(0, new NonTerminal(NonTerminal.Type.PARAMETER)));
+			StaticType type = parameter(ast_node, pt_child(node, 0, NonTerminal.Type.PARAMETER));
                         arg_types.add(type);
 
 			int i_child = 1;
 			while (have(Token.Lexeme.COMMA)) {
-				node.add_child(i_child, m_curr_tok);
+				pt_token(node, i_child);
 
 				expect(Token.Lexeme.COMMA);
 
-				type = parameter(ast_node, node.add_child(i_child + 1, new NonTerminal(NonTerminal.Type.PARAMETER)));
+				type = parameter(ast_node, pt_child(node, i_child + 1, NonTerminal.Type.PARAMETER));
                                 arg_types.add(type);
 				i_child += 2;
 			}
@@ -578,79 +758,42 @@ public class ParserRecursiveDescent implements IParser {
 
 	// assignment-statement := "let" designator "=" expression0 ";" .
 	private void assignment_statement(ASTNode assign_node, GeneralNode node) throws IOException {
-		assign_node.set_element(new AbstractMetaData(AbstractMetaData.Type.Assignment, m_curr_tok.file_pointer()));
+		assign_node.set_element(new AbstractMetaData(AbstractMetaData.Type.Assignment, curr_pos()));
 		
-		node.add_child(0, m_curr_tok);
+		pt_token(node, 0);
 		expect(Token.Lexeme.LET);
 
-		designator(assign_node.make_child(0, m_curr_tok.file_pointer()), 
-                           false, node.add_child(1, new NonTerminal(NonTerminal.Type.DESIGNATOR)));
+		designator(assign_node.make_child(0, curr_pos()), 
+                           pt_child(node, 1, NonTerminal.Type.DESIGNATOR));
 
-		node.add_child(2, m_curr_tok);
+		pt_token(node, 2);
 		expect(Token.Lexeme.ASSIGN);
 
-		expression0(assign_node.make_child(1, m_curr_tok.file_pointer()), 
-                            node.add_child(3, new NonTerminal(NonTerminal.Type.EXPRESSION0)));
+		expression0(assign_node.make_child(1, curr_pos()), 
+                            pt_child(node, 3, NonTerminal.Type.EXPRESSION0));
 
-		node.add_child(4, m_curr_tok);
+		pt_token(node, 4);
 		expect(Token.Lexeme.SEMICOLON);
 	}
 
 	// call-statement := call-expression ";" .
 	private void call_statement(ASTNode ast_node, GeneralNode node) throws IOException {
-		call_expression(ast_node, node.add_child(0, new NonTerminal(NonTerminal.Type.CALL_EXPRESSION)));
-		node.add_child(1, m_curr_tok);
+		call_expression(ast_node, pt_child(node, 0, NonTerminal.Type.CALL_EXPRESSION));
+		pt_token(node, 1);
 		expect(Token.Lexeme.SEMICOLON);
 	}
 
-	// if-statement := "if" expression0 statement-block [ "else" statement-block ] .
-	private void if_statement(ASTNode if_node, GeneralNode node) throws IOException {
-		if_node.set_element(new AbstractMetaData(AbstractMetaData.Type.IfElseBranch, m_curr_tok.file_pointer()));
-		
-		node.add_child(0, m_curr_tok);
-		expect(Token.Lexeme.IF);
-
-		expression0(if_node.make_child(0, m_curr_tok.file_pointer()), 
-                            node.add_child(1, new NonTerminal(NonTerminal.Type.EXPRESSION0)));
-		statement_block(if_node.make_child(1, m_curr_tok.file_pointer()), 
-                                node.add_child(2, new NonTerminal(NonTerminal.Type.STATEMENT_BLOCK)));
-
-		if (have(Token.Lexeme.ELSE)) {
-			node.add_child(3, m_curr_tok);
-			expect(Token.Lexeme.ELSE);
-
-			statement_block(if_node.make_child(2, m_curr_tok.file_pointer()), 
-                                        node.add_child(4, new NonTerminal(NonTerminal.Type.STATEMENT_BLOCK)));
-		} else {
-			if_node.make_child(2, m_curr_tok.file_pointer()).
-                                set_element(new AbstractMetaData(AbstractMetaData.Type.StatementList, m_curr_tok.file_pointer()));
-		}
-	}
-
-	// while-statement := "while" expression0 statement-block .
-	private void while_statement(ASTNode while_node, GeneralNode node) throws IOException {
-		while_node.set_element(new AbstractMetaData(AbstractMetaData.Type.WhileLoop, m_curr_tok.file_pointer()));
-		
-		node.add_child(0, m_curr_tok);
-		expect(Token.Lexeme.WHILE);
-		
-		expression0(while_node.make_child(0, m_curr_tok.file_pointer()), 
-                            node.add_child(1, new NonTerminal(NonTerminal.Type.EXPRESSION0)));
-		statement_block(while_node.make_child(1, m_curr_tok.file_pointer()), 
-                                node.add_child(2, new NonTerminal(NonTerminal.Type.STATEMENT_BLOCK)));
-	}
-
 	// return-statement := "return" expression0 ";" .
 	private void return_statement(ASTNode return_node, GeneralNode node) throws IOException {
-		return_node.set_element(new AbstractMetaData(AbstractMetaData.Type.Return, m_curr_tok.file_pointer()));
+		return_node.set_element(new AbstractMetaData(AbstractMetaData.Type.Return, curr_pos()));
 		
-		node.add_child(0, m_curr_tok);
+		pt_token(node, 0);
 		expect(Token.Lexeme.RETURN);
 
-		expression0(return_node.make_child(0, m_curr_tok.file_pointer()), 
-                            node.add_child(1, new NonTerminal(NonTerminal.Type.EXPRESSION0)));
+		expression0(return_node.make_child(0, curr_pos()), 
+                            pt_child(node, 1, NonTerminal.Type.EXPRESSION0));
 
-		node.add_child(2, m_curr_tok);
+		pt_token(node, 2);
 		expect(Token.Lexeme.SEMICOLON);
 	}
 
@@ -660,193 +803,325 @@ public class ParserRecursiveDescent implements IParser {
 	//      | if-statement
 	//      | while-statement
 	//      | return-statement .
+	// The statements that do not nest, see statement_block() for if and while.
 	private void statement(ASTNode ast_node, GeneralNode node) throws IOException {
-		switch (m_curr_tok.type()) {
+		switch (curr_type()) {
 			case VAR:
-				variable_declaration(ast_node, node.add_child(0, new NonTerminal(
-					NonTerminal.Type.VARIABLE_DECLARATION)));
+				variable_declaration(ast_node, pt_child(node, 0, NonTerminal.Type.VARIABLE_DECLARATION));
 				break;
 			case ARRAY:
-				array_declaration(ast_node, node.add_child(0, new NonTerminal(
-					NonTerminal.Type.ARRAY_DECLARATION)));
+				array_declaration(ast_node, pt_child(node, 0, NonTerminal.Type.ARRAY_DECLARATION));
 				break;
 			case CALL:
-				call_statement(ast_node, node.add_child(0, new NonTerminal(
-					NonTerminal.Type.CALL_STATEMENT)));
+				call_statement(ast_node, pt_child(node, 0, NonTerminal.Type.CALL_STATEMENT));
 				break;
 			case LET:
-				assignment_statement(ast_node, node.add_child(0, new NonTerminal(
-					NonTerminal.Type.ASSIGNMENT_STATEMENT)));
-				break;
-			case IF:
-				if_statement(ast_node, node.add_child(0, new NonTerminal(
-					NonTerminal.Type.IF_STATEMENT)));
-				break;
-			case WHILE:
-				while_statement(ast_node, node.add_child(0, new NonTerminal(
-					NonTerminal.Type.WHILE_STATEMENT)));
+				assignment_statement(ast_node, pt_child(node, 0, NonTerminal.Type.ASSIGNMENT_STATEMENT));
 				break;
 			case RETURN:
-				return_statement(ast_node, node.add_child(0, new NonTerminal(
-					NonTerminal.Type.RETURN_STATEMENT)));
+				return_statement(ast_node, pt_child(node, 0, NonTerminal.Type.RETURN_STATEMENT));
 				break;
 			default:
-				expect(NonTerminal.Type.STATEMENT, new HashSet<Token.Lexeme>() {
-					{
-						add(Token.Lexeme.VAR);
-						add(Token.Lexeme.CALL);
-						add(Token.Lexeme.LET);
-						add(Token.Lexeme.IF);
-						add(Token.Lexeme.WHILE);
-						add(Token.Lexeme.RETURN);
-					}
-				});
+				expect(NonTerminal.Type.STATEMENT, FIRST_STATEMENT);
 				break;
 		}
 	}
 
+	// statement-block := "{" statement-list "}" .
 	// statement-list := { statement } .
-	private void statement_list(ASTNode stmt_node, GeneralNode node) throws IOException {
-		stmt_node.set_element(new AbstractMetaData(AbstractMetaData.Type.StatementList, m_curr_tok.file_pointer()));
-		
-		int i_child = 0;
-		while (have(new HashSet<Token.Lexeme>() {
-			{
-				add(Token.Lexeme.VAR);
-				add(Token.Lexeme.CALL);
-				add(Token.Lexeme.LET);
-				add(Token.Lexeme.IF);
-				add(Token.Lexeme.WHILE);
-				add(Token.Lexeme.RETURN);
+	// if-statement := "if" expression0 statement-block [ "else" statement-block ] .
+	// while-statement := "while" expression0 statement-block .
+	// The statement rules that nest, on the frames of expression(): a nested if or
+	// while costs a frame instead of several Java frames.
+	// A BLOCK frame holds the statement-list node, its next child id and the depth of
+	// its block in a, n and depth, and the parse tree statement-list and
+	// statement-block in pt0 and pt1. An IF_ELSE frame holds the if-statement waiting
+	// for its else in a and pt0.
+	// A statement with a syntax error, or a token that cannot start one, is skipped:
+	// a statement that quits is caught by the BLOCK frame it belongs to.
+	private void statement_block(ASTNode block_node, GeneralNode node) throws IOException {
+		int base = m_frames;
+		try {
+			open_block(block_node, node);
+			while (m_frames > base) {
+				int f = m_frames - 1;
+				try {
+					if (m_frame_kind[f] == IF_ELSE) {
+						ASTNode if_node = m_frame_a[f];
+						GeneralNode if_pt = m_frame_pt0[f];
+						pop_frame();
+						if (have(Token.Lexeme.ELSE)) {
+							pt_token(if_pt, 3);
+							expect(Token.Lexeme.ELSE);
+							open_block(if_node.make_child(2, curr_pos()),
+								   pt_child(if_pt, 4, NonTerminal.Type.STATEMENT_BLOCK));
+						} else {
+							if_node.make_child(2, curr_pos()).
+								set_element(new AbstractMetaData(AbstractMetaData.Type.StatementList, curr_pos()));
+						}
+					} else if (have(END_STATEMENT_LIST)) {
+						GeneralNode block_pt = m_frame_pt1[f];
+						pop_frame();
+						pt_token(block_pt, 2);
+						expect(Token.Lexeme.CLOSE_BRACE);
+						m_depth--;
+					} else if (!have(FIRST_STATEMENT)) {
+						report_syntax_error(Token.Lexeme.CLOSE_BRACE);
+						recover_statement(m_frame_depth[f]);
+					} else {
+						GeneralNode stmt = pt_child(m_frame_pt0[f], m_frame_n[f], NonTerminal.Type.STATEMENT);
+						ASTNode stmt_node = m_frame_a[f].make_child(m_frame_n[f]++, curr_pos());
+						switch (curr_type()) {
+							case IF: {
+								GeneralNode if_pt = pt_child(stmt, 0, NonTerminal.Type.IF_STATEMENT);
+								stmt_node.set_element(new AbstractMetaData(AbstractMetaData.Type.IfElseBranch, curr_pos()));
+								pt_token(if_pt, 0);
+								expect(Token.Lexeme.IF);
+								expression0(stmt_node.make_child(0, curr_pos()),
+									    pt_child(if_pt, 1, NonTerminal.Type.EXPRESSION0));
+								push_frame(IF_ELSE, stmt_node, null, 0, if_pt);
+								open_block(stmt_node.make_child(1, curr_pos()),
+									   pt_child(if_pt, 2, NonTerminal.Type.STATEMENT_BLOCK));
+								break;
+							}
+							case WHILE: {
+								GeneralNode while_pt = pt_child(stmt, 0, NonTerminal.Type.WHILE_STATEMENT);
+								stmt_node.set_element(new AbstractMetaData(AbstractMetaData.Type.WhileLoop, curr_pos()));
+								pt_token(while_pt, 0);
+								expect(Token.Lexeme.WHILE);
+								expression0(stmt_node.make_child(0, curr_pos()),
+									    pt_child(while_pt, 1, NonTerminal.Type.EXPRESSION0));
+								open_block(stmt_node.make_child(1, curr_pos()),
+									   pt_child(while_pt, 2, NonTerminal.Type.STATEMENT_BLOCK));
+								break;
+							}
+							default:
+								statement(stmt_node, stmt);
+								break;
+						}
+					}
+				} catch (QuitParseException e) {
+					while (m_frames > base && m_frame_kind[m_frames - 1] != BLOCK) {
+						pop_frame();
+					}
+					if (m_frames == base) {
+						throw e;
+					}
+					recover_statement(m_frame_depth[m_frames - 1]);
+				}
+			}
+		} finally {
+			while (m_frames > base) {
+				pop_frame();
 			}
-		})) {
-			statement(stmt_node.make_child(i_child, m_curr_tok.file_pointer()), 
-                                  node.add_child(i_child, new NonTerminal(NonTerminal.Type.STATEMENT)));
-			i_child++;
 		}
 	}
 
-	// statement-block := "{" statement-list "}" .
-	private void statement_block(ASTNode ast_node, GeneralNode node) throws IOException {
-		node.add_child(0, m_curr_tok);
+	// "{" of a statement-block, and a BLOCK frame for its statement-list if not empty.
+	private void open_block(ASTNode ast_node, GeneralNode node) throws IOException {
+		pt_token(node, 0);
 		expect(Token.Lexeme.OPEN_BRACE);
-		
-		if (have(new HashSet<Token.Lexeme>() {
-			{
-				add(Token.Lexeme.VAR);
-				add(Token.Lexeme.CALL);
-				add(Token.Lexeme.LET);
-				add(Token.Lexeme.IF);
-				add(Token.Lexeme.WHILE);
-				add(Token.Lexeme.RETURN);
-			}
-		})) {
-			statement_list(ast_node, node.add_child(1, new NonTerminal(NonTerminal.Type.STATEMENT_LIST)));
-			node.add_child(2, m_curr_tok);
+		m_depth++;
+		if (have(Token.Lexeme.CLOSE_BRACE)) {
+			pt_token(node, 1);
 			expect(Token.Lexeme.CLOSE_BRACE);
+			m_depth--;
 		} else {
-			node.add_child(1, m_curr_tok);
-			expect(Token.Lexeme.CLOSE_BRACE);
+			ast_node.set_element(new AbstractMetaData(AbstractMetaData.Type.StatementList, curr_pos()));
+			push_frame(BLOCK, ast_node, null, 0, pt_child(node, 1, NonTerminal.Type.STATEMENT_LIST));
+			m_frame_pt1[m_frames - 1] = node;
+			m_frame_depth[m_frames - 1] = m_depth;
 		}
 	}
 
 	// function-definition := "func" IDENTIFIER "(" parameter-list ")" ":" type statement-block .
 	private void function_definition(ASTNode func_node, GeneralNode node) throws IOException {
-		FilePointer pos = m_curr_tok.file_pointer();
+		FilePointer pos = curr_pos();
 		
-		node.add_child(0, m_curr_tok);
+		pt_token(node, 0);
 		expect(Token.Lexeme.FUNC);
 		
 		List<Token> symbols = new ArrayList<>();
-		symbols.add(m_curr_tok);
+		symbols.add(curr_tok());
 		func_node.set_element(new AbstractMetaData(AbstractMetaData.Type.FunctionDefinition, pos, symbols));
 		
-		node.add_child(0, m_curr_tok);
+		pt_token(node, 0);
 		expect(Token.Lexeme.IDENTIFIER);
 
-		node.add_child(2, m_curr_tok);
+		pt_token(node, 2);
 		expect(Token.Lexeme.OPEN_PAREN);
 
-		List<StaticType> arg_types = parameter_list(func_node, node.add_child(3, new NonTerminal(NonTerminal.Type.PARAMETER_LIST)));
+		List<StaticType> arg_types = parameter_list(func_node, pt_child(node, 3, NonTerminal.Type.PARAMETER_LIST));
 
-		node.add_child(4, m_curr_tok);
+		pt_token(node, 4);
 		expect(Token.Lexeme.CLOSE_PAREN);
 
-		node.add_child(5, m_curr_tok);
+		pt_token(node, 5);
 		expect(Token.Lexeme.COLON);
 
-		StaticType ret_type = type(func_node, node.add_child(6, new NonTerminal(NonTerminal.Type.TYPE)));
+		StaticType ret_type = type(func_node, pt_child(node, 6, NonTerminal.Type.TYPE));
                 AbstractMetaData meta = (AbstractMetaData) func_node.get_element();
-                meta.set_type(new StaticType(ret_type, arg_types));
+                meta.set_type(StaticType.func(ret_type, arg_types));
 
-		statement_block(func_node.make_child(0, m_curr_tok.file_pointer()), 
-                                node.add_child(7, new NonTerminal(NonTerminal.Type.STATEMENT_BLOCK)));
+		statement_block(func_node.make_child(0, curr_pos()), 
+                                pt_child(node, 7, NonTerminal.Type.STATEMENT_BLOCK));
 	}
 
 	// declaration := variable-declaration | array-declaration | function-definition .
 	private void declaration(ASTNode ast_node, GeneralNode node) throws IOException {
-		switch (m_curr_tok.type()) {
+		switch (curr_type()) {
 			case VAR:
-				variable_declaration(ast_node, node.add_child(0, new NonTerminal(
-					NonTerminal.Type.VARIABLE_DECLARATION)));
+				variable_declaration(ast_node, pt_child(node, 0, NonTerminal.Type.VARIABLE_DECLARATION));
 				break;
 			case FUNC:
-				function_definition(ast_node, node.add_child(0, new NonTerminal(
-					NonTerminal.Type.FUNCTION_DEFINITION)));
+				function_definition(ast_node, pt_child(node, 0, NonTerminal.Type.FUNCTION_DEFINITION));
 				break;
 			case ARRAY:
-				array_declaration(ast_node, node.add_child(0, new NonTerminal(
-					NonTerminal.Type.ARRAY_DECLARATION)));
+				array_declaration(ast_node, pt_child(node, 0, NonTerminal.Type.ARRAY_DECLARATION));
 				break;
 			default:
-				expect(NonTerminal.Type.DECLARATION, new HashSet<Token.Lexeme>() {
-					{
-						add(Token.Lexeme.VAR);
-						add(Token.Lexeme.FUNC);
-						add(Token.Lexeme.ARRAY);
-					}
-				});
+				expect(NonTerminal.Type.DECLARATION, FIRST_DECLARATION);
 				break;
 		}
 	}
 
 	// declaration-list := { declaration } .
 	private void declaration_list(ASTNode ast_node, GeneralNode node) throws IOException {
-		ast_node.set_element(new AbstractMetaData(AbstractMetaData.Type.DeclarationList, m_curr_tok.file_pointer()));
-
-		int i_child = 0;
-		while (have(new HashSet<Token.Lexeme>() {
-			{
-				add(Token.Lexeme.VAR);
-				add(Token.Lexeme.FUNC);
-				add(Token.Lexeme.ARRAY);
+		ast_node.set_element(new AbstractMetaData(AbstractMetaData.Type.DeclarationList, curr_pos()));
+		declarations(ast_node, node, 0);
+	}
+
+	// Parse declarations into the children of ast_node from i_child on, up to EOF or
+	// up to one of m_stops. A token that cannot start a declaration is skipped.
+	private void declarations(ASTNode ast_node, GeneralNode node, int i_child) throws IOException {
+		while (!have(Token.Lexeme.EOF) && !at_stop()) {
+			int begin = m_tok_i;
+			int errs = m_err_buf.length();
+			ASTNode decl = null;
+			if (!have(FIRST_DECLARATION)) {
+				report_syntax_error(Token.Lexeme.EOF);
+				recover_declaration();
+			} else {
+				decl = ast_node.make_child(i_child, curr_pos());
+				try {
+					declaration(decl, pt_child(node, i_child, NonTerminal.Type.DECLARATION));
+				} catch (QuitParseException e) {
+					recover_declaration();
+				}
+				i_child++;
+			}
+			if (m_units != null) {
+				m_units.add(begin, m_tok_i, decl, m_err_buf.length() == errs);
 			}
-		})) {
-			declaration(ast_node.make_child(i_child, m_curr_tok.file_pointer()), 
-                                    node.add_child(i_child, new NonTerminal(NonTerminal.Type.DECLARATION)));
-			i_child++;
 		}
 	}
 
+	// A reused declaration parses the same wherever the declaration list is at top level.
+	private boolean at_stop() {
+		while (m_stop_i < m_stops.length && m_stops[m_stop_i] < m_tok_i) {
+			m_stop_i++;
+		}
+		return m_stop_i < m_stops.length && m_stops[m_stop_i] == m_tok_i && m_depth == 0;
+	}
+
 	// program := declaration-list EOF .
 	private void program(AST ast, ParseTree tree) throws IOException {
-		GeneralNode root = tree.create_root(new NonTerminal(NonTerminal.Type.PROGRAM));
-		ASTNode ast_root = ast.create_root(m_curr_tok.file_pointer());
+		GeneralNode root = m_build_pt ? tree.create_root(new NonTerminal(NonTerminal.Type.PROGRAM)) : null;
+		ASTNode ast_root = ast.create_root(curr_pos());
+
+		declaration_list(ast_root, pt_child(root, 0, NonTerminal.Type.DECLARATION_LIST));
+		report_errors();
+	}
+
+	/**
+	 * Report every syntax error of the last parse, followed by where the first one
+	 * stopped the tree.
+	 * @throws ErrorReport if there was any.
+	 */
+	void report_errors() throws ErrorReport {
+		if (m_first_err != null) {
+			StringBuilder errs = new StringBuilder(m_err_buf);
+			errs.append("SyntaxError(").append(m_first_err.line_no() + 1).append(",")
+				.append(m_first_err.column()).append(")[Could not complete parsing.]");
+			throw new ErrorReport(new CompilingError(errs.toString()));
+		}
+	}
 
-		declaration_list(ast_root, root.add_child(0, new NonTerminal(NonTerminal.Type.DECLARATION_LIST)));
+	private void reset(boolean build_pt) {
+		m_build_pt = build_pt;
+		m_err_buf = new StringBuilder();
+		m_advances = 0;
+		m_depth = 0;
+		m_first_err = null;
+		m_err_at = -1;
+		m_curr_pos = null;
+		m_curr_tok = null;
 	}
 
 	@Override
 	public void parse(IScanner s, AST ast, ParseTree pt) throws ErrorReport {
 		try {
-			m_build_pt = pt != null;
-
-			m_err_buf = new StringBuilder();
+			reset(pt != null);
 			m_scanner = s;
+			m_toks = null;
 			m_curr_tok = s.scan_next();
+			ast.set_names(s.names());
 			program(ast, pt);
 		} catch (IOException ex) {
 			Logger.getLogger(ParserRecursiveDescent.class.getName()).log(Level.SEVERE, null, ex);
 		}
 	}
+
+	@Override
+	public void parse(TokenBuffer toks, AST ast, ParseTree pt) throws ErrorReport {
+		try {
+			reset(pt != null);
+			m_scanner = null;
+			m_toks = toks;
+			m_tok_i = 0;
+			ast.set_names(toks.names());
+			program(ast, pt);
+		} catch (IOException ex) {
+			Logger.getLogger(ParserRecursiveDescent.class.getName()).log(Level.SEVERE, null, ex);
+		}
+	}
+
+	/**
+	 * Parse part of a declaration list, for IncrementalParser and ParallelParser. A new root is created
+	 * for ast, then the declarations from token tok_i on are parsed into its children
+	 * from i_child on, up to EOF or up to the first one starting at a token of stops.
+	 * Syntax errors are kept for report_errors().
+	 * @param toks tokens of the whole source.
+	 * @param ast tree to create the root of.
+	 * @param tok_i index of the token to start at, where a declaration starts.
+	 * @param i_child id of the first declaration parsed.
+	 * @param stops ascending token indices where declarations parsed apart start.
+	 * @param units receives the extent of each declaration parsed.
+	 * @return index in stops of the declaration parsing stopped at, or stops.length at EOF.
+	 */
+	int reparse(TokenBuffer toks, AST ast, int tok_i, int i_child, int[] stops, Declarations units) {
+		try {
+			reset(false);
+			m_scanner = null;
+			m_toks = toks;
+			m_tok_i = 0;
+			ast.set_names(toks.names());
+			ASTNode root = ast.create_root(curr_pos());
+			root.set_element(new AbstractMetaData(AbstractMetaData.Type.DeclarationList, curr_pos()));
+
+			m_tok_i = tok_i;
+			m_curr_pos = null;
+			m_stops = stops;
+			m_stop_i = 0;
+			m_units = units;
+			declarations(root, null, i_child);
+			return have(Token.Lexeme.EOF) ? stops.length : m_stop_i;
+		} catch (IOException ex) {
+			Logger.getLogger(ParserRecursiveDescent.class.getName()).log(Level.SEVERE, null, ex);
+			return stops.length;
+		} finally {
+			m_stops = NO_STOPS;
+			m_units = null;
+		}
+	}
 }
@@ -21,6 +21,8 @@ package crux;
  * @author davis
  */
 public class ResolveSymbolError extends CompilingError {
+
+        private static final long serialVersionUID = 1L;
         
         public ResolveSymbolError(Token t) {
                 super("ResolveSymbolError(" + (t.file_pointer().line_no() + 1) + "," + t.file_pointer().column() 
@@ -19,8 +19,6 @@ package crux;
 
 import java.io.BufferedReader;
 import java.io.IOException;
-import java.util.HashMap;
-import java.util.Map;
 
 /**
  * Perform lexical analysis and generate token.
@@ -29,30 +27,27 @@ import java.util.Map;
  */
 public class Scanner implements IScanner {
 
+        private final BufferedReader m_reader;
         private final FilePointer m_fp;
-        private final Map<String, Token.Lexeme> m_keywords;
+        private final NameTable m_names;
 
         /**
          * Construct a Scanner with the system file pointer specified as the first-line-first-column location.
          * @param reader A system file pointer.
          */
         public Scanner(BufferedReader reader) {
-                m_fp = new FilePointer(0, 0, reader);
+                this(reader, new NameTable());
+        }
 
-                m_keywords = new HashMap<>();
-                m_keywords.put("and", Token.Lexeme.AND);
-                m_keywords.put("or", Token.Lexeme.OR);
-                m_keywords.put("not", Token.Lexeme.NOT);
-                m_keywords.put("let", Token.Lexeme.LET);
-                m_keywords.put("var", Token.Lexeme.VAR);
-                m_keywords.put("array", Token.Lexeme.ARRAY);
-                m_keywords.put("func", Token.Lexeme.FUNC);
-                m_keywords.put("if", Token.Lexeme.IF);
-                m_keywords.put("else", Token.Lexeme.ELSE);
-                m_keywords.put("while", Token.Lexeme.WHILE);
-                m_keywords.put("true", Token.Lexeme.TRUE);
-                m_keywords.put("false", Token.Lexeme.FALSE);
-                m_keywords.put("return", Token.Lexeme.RETURN);
+        /**
+         * Construct a Scanner that interns identifiers into a shared pool.
+         * @param reader A system file pointer.
+         * @param names identifier pool of the compilation.
+         */
+        public Scanner(BufferedReader reader, NameTable names) {
+                m_reader = reader;
+                m_fp = new FilePointer(0, 0, reader);
+                m_names = names;
         }
 
         private static boolean match_next_integer(FilePointer fp, StringBuilder sb) throws IOException {
@@ -90,9 +85,7 @@ public class Scanner implements IScanner {
                 }
         }
 
-        private static Token.Lexeme match_next_identifier(FilePointer fp,
-                                                          Map<String, Token.Lexeme> keywords,
-                                                          StringBuilder sb) throws IOException {
+        private static Token.Lexeme match_next_identifier(FilePointer fp, StringBuilder sb) throws IOException {
                 fp.mark();
                 int first = fp.next();
                 if (Character.isAlphabetic(first) || first == '_') {
@@ -106,12 +99,7 @@ public class Scanner implements IScanner {
                                 next = fp.next();
                         }
                         fp.reset();
-                        Token.Lexeme kw = keywords.get(sb.toString());
-                        if (kw == null) {
-                                return Token.Lexeme.IDENTIFIER;
-                        } else {
-                                return kw;
-                        }
+                        return Keywords.lookup(sb);
                 } else {
                         fp.reset();
                         return Token.Lexeme.ERROR;
@@ -136,11 +124,11 @@ public class Scanner implements IScanner {
                 int c = fp.next();
                 if (c == '/') {
                         c = fp.next();
-                        while (c != '\n' && c != -1) {
-                                fp.mark();
-                                c = fp.next();
+                        if (c == '\n' || c == -1) {
+                                fp.reset();
+                        } else {
+                                fp.skip_line();
                         }
-                        fp.reset();
                         return true;
                 } else {
                         fp.reset();
@@ -159,8 +147,7 @@ public class Scanner implements IScanner {
                 }
         }
 
-        private static MatchResult match_next_everything(
-                FilePointer fp, Map<String, Token.Lexeme> keywords, StringBuilder builder) throws IOException {
+        private static MatchResult match_next_everything(FilePointer fp, StringBuilder builder) throws IOException {
                 fp.mark();
                 while (true) {
                         int c = fp.next();
@@ -169,9 +156,11 @@ public class Scanner implements IScanner {
                                         return new MatchResult(Token.Lexeme.EOF, 1);
                                 case Character.SPACE_SEPARATOR:
                                 case Character.LINE_SEPARATOR:
-                                case '\n':
                                 case '\t':
                                 case ' ':
+                                        fp.skip_spaces();
+                                        break;
+                                case '\n':
                                         fp.mark();
                                         break;
                                 case '(':
@@ -237,7 +226,7 @@ public class Scanner implements IScanner {
                                         fp.reset();
                                         Token.Lexeme r;
 
-                                        if (Token.Lexeme.ERROR != (r = match_next_identifier(fp, keywords, builder))) {
+                                        if (Token.Lexeme.ERROR != (r = match_next_identifier(fp, builder))) {
                                                 int l = builder.length();
                                                 if (r != Token.Lexeme.IDENTIFIER) {
                                                         builder.setLength(0);
@@ -262,10 +251,23 @@ public class Scanner implements IScanner {
         @Override
         public Token scan_next() throws IOException {
                 StringBuilder sb = new StringBuilder();
-                MatchResult res = match_next_everything(m_fp, m_keywords, sb);
-                return new Token(res.type,
-                                 new FilePointer(m_fp.line_no(), 
-                                                 m_fp.column() - res.length + 1),
-                                 sb.toString());
+                MatchResult res = match_next_everything(m_fp, sb);
+                FilePointer fp = new FilePointer(m_fp.line_no(), 
+                                                 m_fp.column() - res.length + 1);
+                if (res.type == Token.Lexeme.IDENTIFIER) {
+                        int name = m_names.intern(sb);
+                        return new Token(res.type, fp, m_names.name(name), name);
+                }
+                return new Token(res.type, fp, sb.toString());
+        }
+
+        @Override
+        public NameTable names() {
+                return m_names;
+        }
+
+        @Override
+        public void close() throws IOException {
+                m_reader.close();
         }
 }
@@ -0,0 +1,45 @@
+/*
+ * Copyright (C) 2017 davis
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package crux;
+
+/**
+ * The symbols in scope where an error was found, printed after it a line per symbol.
+ * The lines are only formatted when the report is printed.
+ * @author davis
+ */
+public class ScopeDump extends CompilingError {
+
+        private static final long serialVersionUID = 1L;
+
+        private final transient SymbolTable.Snapshot m_symbols;
+
+        public ScopeDump(SymbolTable.Snapshot symbols) {
+                super(null);
+                m_symbols = symbols;
+        }
+
+        @Override
+        public String getMessage() {
+                return toString();
+        }
+
+        @Override
+        public String toString() {
+                return m_symbols.toString();
+        }
+}
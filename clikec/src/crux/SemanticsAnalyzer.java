@@ -1,7 +1,11 @@
 package crux;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 
 /*
  * Copyright (C) 2017 davis
@@ -21,64 +25,92 @@ import java.util.List;
  * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
  */
 /**
+ * Given a pool, the analysis of a file is split: the top level declarations are
+ * declared first, in order, then the function bodies are checked on the pool, each
+ * over a snapshot of the globals declared up to its function. The errors of each
+ * declaration are then reported in source order, as checking it all in order does.
  * @author davis
  */
 public class SemanticsAnalyzer implements ISemanticsAnalyzer {
 
+        // Nodes below which a run of functions is not worth a task.
+        private static final int        MIN_RUN = 1 << 12;
+        // Runs per thread, so that uneven ones still balance.
+        private static final int        RUNS_PER_THREAD = 4;
+
+        private final ForkJoinPool      m_pool;
         private SymbolTable             m_table = new SymbolTable();
-        private final ErrorReport       m_errs = new ErrorReport();
+        private ErrorReport             m_errs = new ErrorReport();
         private Symbol                  m_curr_func = null;
         private boolean                 m_has_main = false;
+        private int                     m_main = NameTable.NONE;
+
+        // Built-in functions, built once and shared by every analysis. They live in
+        // the global scope, so their depth is always 0.
+        private static final List<Symbol> BUILTINS = new ArrayList<>();
+
+        static {
+                BUILTINS.add(new Symbol("readInt",
+                        StaticType.func(StaticType.INT, Collections.<StaticType>emptyList())));
+                BUILTINS.add(new Symbol("readFloat",
+                        StaticType.func(StaticType.FLOAT, Collections.<StaticType>emptyList())));
+                BUILTINS.add(new Symbol("printBool",
+                        StaticType.func(StaticType.VOID, Collections.singletonList(StaticType.BOOL))));
+                BUILTINS.add(new Symbol("printInt",
+                        StaticType.func(StaticType.VOID, Collections.singletonList(StaticType.INT))));
+                BUILTINS.add(new Symbol("printFloat",
+                        StaticType.func(StaticType.VOID, Collections.singletonList(StaticType.FLOAT))));
+                BUILTINS.add(new Symbol("println",
+                        StaticType.func(StaticType.VOID, Collections.<StaticType>emptyList())));
+        }
 
         public SemanticsAnalyzer() {
-                // Preload symbols.
-                m_table.put("readInt", new Symbol("readInt",
-                        new StaticType(
-                                new StaticType(StaticType.T.INT),
-                                new ArrayList<>())
-                ));
-                m_table.put("readFloat", new Symbol("readFloat", 
-                        new StaticType(
-                                new StaticType(StaticType.T.FLOAT), 
-                                new ArrayList<>())
-                ));
-                m_table.put("printBool", new Symbol("printBool", 
-                        new StaticType(
-                                new StaticType(StaticType.T.VOID), 
-                                new ArrayList<StaticType>() {{
-                                        add(new StaticType(StaticType.T.BOOL));
-                                }})
-                ));
-                m_table.put("printInt", new Symbol("printInt", 
-                        new StaticType(
-                                new StaticType(StaticType.T.VOID), 
-                                new ArrayList<StaticType>() {{
-                                        add(new StaticType(StaticType.T.INT));
-                                }})
-                ));
-                m_table.put("printFloat", new Symbol("printFloat", 
-                        new StaticType(
-                                new StaticType(StaticType.T.VOID), 
-                                new ArrayList<StaticType>() {{
-                                        add(new StaticType(StaticType.T.FLOAT));
-                                }})
-                ));
-                m_table.put("println", new Symbol("println", 
-                        new StaticType(
-                                new StaticType(StaticType.T.VOID), 
-                                new ArrayList<>())
-                ));
+                this(null);
+        }
+
+        /**
+         * @param pool where the function bodies of a file are checked, or null to check
+         *        the file in order on the calling thread.
+         */
+        public SemanticsAnalyzer(ForkJoinPool pool) {
+                m_pool = pool;
+        }
+
+        // Checks function bodies of a split analysis, see check_run().
+        private SemanticsAnalyzer(SymbolTable globals, int main) {
+                m_pool = null;
+                m_table = new SymbolTable(globals);
+                m_main = main;
+        }
+
+        // A top level declaration of a split analysis, with what checking it found.
+        private static final class Unit {
+
+                final ASTNode                   m_node;
+                final ErrorReport               m_errs = new ErrorReport();
+                // A function, and the globals its body sees.
+                Symbol                          m_func;
+                SymbolTable.Snapshot            m_scope;
+                boolean                         m_has_main;
+                // What ended the analysis in the declaration, if anything did.
+                Throwable                       m_crash;
+
+                Unit(ASTNode node) {
+                        m_node = node;
+                }
+        }
+
+        private void preload(NameTable names) {
+                m_main = names.intern("main");
+                for (Symbol s : BUILTINS) {
+                        m_table.put(names.intern(s.name()), s);
+                }
         }
 
         private void log_current_symbols() {
-                List<Symbol> symbols = m_table.log_symbols();
-                for (int i = 0; i < symbols.size(); i++) {
-                        Symbol s = symbols.get(i);
-                        String indent = "";
-                        for (int j = 0; j < s.get_depth(); j++) {
-                                indent += "  ";
-                        }
-                        m_errs.add(new CompilingError(indent + s.toString()));
+                SymbolTable.Snapshot symbols = m_table.snapshot();
+                if (!symbols.is_empty()) {
+                        m_errs.add(new ScopeDump(symbols));
                 }
         }
         
@@ -86,9 +118,13 @@ public class SemanticsAnalyzer implements ISemanticsAnalyzer {
                 m_errs.add(new TypeError(fp, error));
         }
 
+        private void log_type_error(FilePointer fp, IType error) {
+                m_errs.add(new TypeError(fp, error));
+        }
+
         private Symbol declare_symbol(Token t, IType type) {
                 Symbol s = new Symbol(t.attribute(), type);
-                if (!m_table.put(t.attribute(), s)) {
+                if (!m_table.put(t.name_id(), s)) {
                         m_errs.add(new DeclareSymbolError(t));
                         log_current_symbols();
                 }
@@ -96,7 +132,7 @@ public class SemanticsAnalyzer implements ISemanticsAnalyzer {
         }
 
         private Symbol resolve_symbol(Token t) {
-                Symbol sym = m_table.search(t.attribute());
+                Symbol sym = m_table.search(t.name_id());
                 if (null == sym) {
                         m_errs.add(new ResolveSymbolError(t));
                         log_current_symbols();
@@ -104,98 +140,186 @@ public class SemanticsAnalyzer implements ISemanticsAnalyzer {
                 return sym;
         }
         
-        private static List<StaticType> get_operand_type(ASTNode node) {
+        private static AbstractMetaData data(GeneralNode node) {
+                return (AbstractMetaData) node.get_element();
+        }
+
+        // Kind of the node, null for a node without an element.
+        private static AbstractMetaData.Type kind(GeneralNode node) {
+                AbstractMetaData data = data(node);
+                return data == null ? null : data.type();
+        }
+
+        // Type of the node, null for a node without an element.
+        private static IType type(GeneralNode node) {
+                AbstractMetaData data = data(node);
+                return data == null ? null : data.get_type();
+        }
+
+        private static void set_type(GeneralNode node, IType type) {
+                data(node).set_type(type);
+        }
+
+        private static Token terminal(GeneralNode node, int i) {
+                return data(node).terminals().get(i);
+        }
+
+        private static List<StaticType> get_operand_type(GeneralNode node) {
                 List<StaticType> types = new ArrayList<>();
                 for (int i = 0; i <= node.max_id(); i ++) {
                         GeneralNode op = node.get_child(i);
                         if (op != null)
-                                types.add((StaticType) ((AbstractMetaData) op.get_element()).get_type());
+                                types.add((StaticType) type(op));
                 }
                 return types;
         }
-        
-        private boolean has_return(ASTNode node) {
-                if (node == null)
-                        return false;
-                
-                AbstractMetaData data = (AbstractMetaData) node.get_element();
-                if (data.type() == AbstractMetaData.Type.Return) {
-                        return true;
+
+        // has_return() as a GeneralNode.walk(): a node leaves its result on a stack in place
+        // of the results of its children, which are the ones pushed since it was entered.
+        private static final class ReturnPaths implements GeneralNode.Visitor {
+
+                private boolean[]       m_rets = new boolean[16];
+                private int             m_rets_size = 0;
+                private int[]           m_marks = new int[16];
+                private int             m_marks_size = 0;
+
+                @Override
+                public boolean pre(GeneralNode n, int depth) {
+                        if (m_marks_size == m_marks.length) {
+                                m_marks = Arrays.copyOf(m_marks, m_marks_size*2);
+                        }
+                        m_marks[m_marks_size++] = m_rets_size;
+                        AbstractMetaData.Type type = kind(n);
+                        return type != AbstractMetaData.Type.Return && type != AbstractMetaData.Type.WhileLoop;
                 }
 
-                if (data.type() == AbstractMetaData.Type.WhileLoop) {
-                        return false;
-                } else if (data.type() != AbstractMetaData.Type.IfElseBranch) {
-                        for (int i = 0; i < node.children_size(); i++) {
-                                if (has_return((ASTNode) node.get_child(i))) {
-                                        return true;
+                @Override
+                public void post(GeneralNode n, int depth) {
+                        int mark = m_marks[--m_marks_size];
+                        AbstractMetaData.Type type = kind(n);
+                        boolean ret = false;
+                        if (type == AbstractMetaData.Type.Return) {
+                                ret = true;
+                        } else if (type == AbstractMetaData.Type.IfElseBranch) {
+                                ret = child_ret(n, mark, 1) && child_ret(n, mark, 2);
+                        } else if (type != AbstractMetaData.Type.WhileLoop) {
+                                for (int i = mark; i < m_rets_size; i++) {
+                                        ret |= m_rets[i];
+                                }
+                        }
+                        m_rets_size = mark;
+                        if (m_rets_size == m_rets.length) {
+                                m_rets = Arrays.copyOf(m_rets, m_rets_size*2);
+                        }
+                        m_rets[m_rets_size++] = ret;
+                }
+
+                // Result of the child of n with that id, false if there is none.
+                private boolean child_ret(GeneralNode n, int mark, int id) {
+                        int i = mark;
+                        for (int c = 0; c < n.children_size(); c++) {
+                                if (n.get_child(c) == null) {
+                                        continue;
+                                }
+                                if (c == id) {
+                                        return m_rets[i];
                                 }
+                                i++;
                         }
                         return false;
-                } else {
-                        return has_return((ASTNode) node.get_child(1)) && has_return((ASTNode) node.get_child(2));
+                }
+
+                boolean result() {
+                        return m_rets[0];
                 }
         }
 
-	private void check(ASTNode node) throws ErrorReport {
-		if (node == null) {
-			return;
-		}
+        private boolean has_return(ASTNode node) {
+                if (node == null)
+                        return false;
+                ReturnPaths paths = new ReturnPaths();
+                node.walk(paths);
+                return paths.result();
+        }
+
+        private void check(ASTNode node) {
+                if (node == null) {
+                        return;
+                }
+                node.walk(new GeneralNode.Visitor() {
+                        @Override
+                        public boolean pre(GeneralNode n, int depth) {
+                                enter((ASTNode) n);
+                                return true;
+                        }
+
+                        @Override
+                        public void post(GeneralNode n, int depth) {
+                                leave((ASTNode) n);
+                        }
+                });
+        }
 
-		AbstractMetaData data = (AbstractMetaData) node.get_element();
-		switch (data.type()) {
+	private void enter(ASTNode node) {
+		AbstractMetaData.Type type = kind(node);
+		switch (type) {
 			case StatementList:
 				if (!m_table.is_function_scope()) {
-					m_table = m_table.enter_scope();
+					m_table.enter_scope();
 				} else {
 					m_table.unset_function_scope();
 				}
 				break;
 			case FunctionDefinition:
-				List<Token> tokens = data.terminals();
-				m_curr_func = declare_symbol(tokens.get(0), data.get_type());
-				m_table = m_table.enter_scope();
-				m_table.set_function_scope();
-                                List<IType> decls = data.get_type().sub_decls();
-				for (int i = 1; i < tokens.size(); i ++)
-					declare_symbol(tokens.get(i), decls.get(i - 1));
+				m_curr_func = declare_symbol(terminal(node, 0), type(node));
+				enter_function(node);
 				break;
 			case VariableDeclaration:
 			case ArrayDeclaration:
-				declare_symbol((Token) data.terminals().get(0), data.get_type());
+				declare_symbol(terminal(node, 0), type(node));
 				break;
 			case Call:
-				resolve_symbol((Token) data.terminals().get(0));
+				resolve_symbol(terminal(node, 0));
 				break;
 			case AddressOf:
-				resolve_symbol((Token) data.terminals().get(0));
+				resolve_symbol(terminal(node, 0));
 				break;
 		}
-		
-                for (int i = 0; i < node.children_size(); i++) {
-			check((ASTNode) node.get_child(i));
-		}
-                
+	}
+
+	// Scope of the parameters and body of the function m_curr_func.
+	private void enter_function(ASTNode node) {
+		m_table.enter_scope();
+		m_table.set_function_scope();
+                List<IType> decls = type(node).sub_decls();
+		for (int i = 1; i < data(node).terminals().size(); i ++)
+			declare_symbol(terminal(node, i), decls.get(i - 1));
+	}
+
+	private void leave(ASTNode node) {
+		AbstractMetaData.Type type = kind(node);
                 List<StaticType> types = get_operand_type(node);
                 IType t;
                 Symbol s;
-		switch (data.type()) {
+		switch (type) {
 			case StatementList:
-				m_table = m_table.leave_scope();
+				m_table.leave_scope();
 				break;
 
                         case FunctionDefinition:
-                                try {
-                                        if ("main".equals(data.terminals().get(0).attribute())) {
-                                                m_has_main = true;
-                                                data.get_type().check_entrance();
-                                        }
-                                        data.get_type().check_decl(m_curr_func.name());
-                                } catch (TypeError e) {
-                                        log_type_error(node.get_pos(), e.get_msg());
+                                t = null;
+                                if (terminal(node, 0).name_id() == m_main) {
+                                        m_has_main = true;
+                                        t = type(node).check_entrance();
+                                }
+                                if (t == null) {
+                                        t = type(node).check_decl(m_curr_func.name());
+                                }
+                                if (t != null) {
+                                        log_type_error(node.get_pos(), t);
                                 }
                                 
-                                if (data.get_type().has_return()) {
+                                if (type(node).has_return()) {
                                         if (!has_return(node))
                                                 log_type_error(node.get_pos(), "Not all paths in function " 
                                                         + m_curr_func.name() + " have a return.");
@@ -206,181 +330,309 @@ public class SemanticsAnalyzer implements ISemanticsAnalyzer {
                                 
                         case VariableDeclaration:
                         case ArrayDeclaration:
-                                try {
-                                        data.get_type().check_decl(data.terminals().get(0).attribute());
-                                } catch (TypeError err) {
-                                        log_type_error(node.get_pos(), err.get_msg());
+                                t = type(node).check_decl(terminal(node, 0).attribute());
+                                if (t != null) {
+                                        log_type_error(node.get_pos(), t);
                                 }
                                 break;
 
                         case Comparison:
-                                try {
-                                        t = types.get(0).compare(types.get(1));
-                                        data.set_type(t);
-                                } catch (TypeError err) {
-                                        log_type_error(node.get_pos(), err.get_msg());
-                                        data.set_type(new StaticType(err));
+                                t = types.get(0).compare(types.get(1));
+                                if (t.is_error()) {
+                                        log_type_error(node.get_pos(), t);
                                 }
+                                set_type(node, t);
                                 break;
                                 
                         case LogicalOr:
-                                try {
-                                        t = types.get(0).or(types.get(1));
-                                        data.set_type(t);
-                                } catch (TypeError err) {
-                                        log_type_error(node.get_pos(), err.get_msg());
-                                        data.set_type(new StaticType(err));
+                                t = types.get(0).or(types.get(1));
+                                if (t.is_error()) {
+                                        log_type_error(node.get_pos(), t);
                                 }
+                                set_type(node, t);
                                 break;
                                 
                         case LogicalAnd:
-                                try {
-                                        t = types.get(0).and(types.get(1));
-                                        data.set_type(t);
-                                } catch (TypeError err) {
-                                        log_type_error(node.get_pos(), err.get_msg());
-                                        data.set_type(new StaticType(err));
+                                t = types.get(0).and(types.get(1));
+                                if (t.is_error()) {
+                                        log_type_error(node.get_pos(), t);
                                 }
+                                set_type(node, t);
                                 break;
                                 
                         case LogicalNot:
-                                try {
-                                        t = types.get(0).not();
-                                        data.set_type(t);
-                                } catch (TypeError err) {
-                                        log_type_error(node.get_pos(), err.get_msg());
-                                        data.set_type(new StaticType(err));
+                                t = types.get(0).not();
+                                if (t.is_error()) {
+                                        log_type_error(node.get_pos(), t);
                                 }
+                                set_type(node, t);
                                 break;
                                 
                         case Assignment:
-                                try {
-                                        t = types.get(0).assign(types.get(1));
-                                        data.set_type(t);
-                                } catch (TypeError err) {
-                                        log_type_error(node.get_pos(), err.get_msg());
-                                        data.set_type(new StaticType(err));
+                                t = types.get(0).assign(types.get(1));
+                                if (t.is_error()) {
+                                        log_type_error(node.get_pos(), t);
                                 }
+                                set_type(node, t);
                                 break;
                                 
                         case AddressOf:
-                                s = resolve_symbol((Token) data.terminals().get(0));
+                                s = resolve_symbol(terminal(node, 0));
                                 if (s == null)
-                                        data.set_type(new StaticType(StaticType.T.VOID));
+                                        set_type(node, StaticType.VOID);
                                 else {
-                                        data.set_type(s.get_type());
+                                        set_type(node, s.get_type());
                                 }
                                 break;
                                 
                         case Index:
-                                try {
-                                        t = types.get(0).index(types.get(1));
-                                        data.set_type(t);
-                                } catch (TypeError err) {
-                                        log_type_error(node.get_pos(), err.get_msg());
-                                        data.set_type(new StaticType(err));
+                                t = types.get(0).index(types.get(1));
+                                if (t.is_error()) {
+                                        log_type_error(node.get_pos(), t);
                                 }
+                                set_type(node, t);
                                 break;
                                 
                         case Dereference:
-                                try {
-                                        t = types.get(0).deref();
-                                        data.set_type(t);
-                                } catch (TypeError err) {
-                                        log_type_error(node.get_pos(), err.get_msg());
-                                        data.set_type(new StaticType(err));
+                                t = types.get(0).deref();
+                                if (t.is_error()) {
+                                        log_type_error(node.get_pos(), t);
                                 }
+                                set_type(node, t);
                                 break;
                                 
                         case Call:
-                                s = resolve_symbol((Token) data.terminals().get(0));
+                                s = resolve_symbol(terminal(node, 0));
                                 if (s == null)
-                                        data.set_type(new StaticType(StaticType.T.VOID));
+                                        set_type(node, StaticType.VOID);
                                 else {
-                                        ASTNode explist = (ASTNode) node.get_child(0);
-                                        List<StaticType> args = get_operand_type(explist);
-                                        try {
-                                                s.get_type().call(new StaticType(args), s.name());
-                                                data.set_type(s.get_type());
-                                        } catch (TypeError err) {
-                                                log_type_error(node.get_pos(), err.get_msg());
-                                                data.set_type(new StaticType(err));
+                                        List<StaticType> args = get_operand_type(node.get_child(0));
+                                        t = s.get_type().call(StaticType.args(args), s.name());
+                                        if (t.is_error()) {
+                                                log_type_error(node.get_pos(), t);
+                                                set_type(node, t);
+                                        } else {
+                                                set_type(node, s.get_type());
                                         }
                                 }
                                 break;
                                 
                         case Return:
-                                try {
-                                        m_curr_func.get_type().ret(types.get(0), m_curr_func.name());
-                                        data.set_type(types.get(0));
-                                } catch (TypeError e) {
-                                        log_type_error(node.get_pos(), e.get_msg());
-                                        data.set_type(m_curr_func.get_type());
+                                t = m_curr_func.get_type().ret(types.get(0), m_curr_func.name());
+                                // ret() passes an erroneous value on when the return type is unknown.
+                                if (t.is_error() && t != types.get(0)) {
+                                        log_type_error(node.get_pos(), t);
+                                        set_type(node, m_curr_func.get_type());
+                                } else {
+                                        set_type(node, types.get(0));
                                 }
                                 break;
                                 
                         case Addition:
-                                try {
-                                        t = types.get(0).add(types.get(1));
-                                        data.set_type(t);
-                                } catch (TypeError err) {
-                                        log_type_error(node.get_pos(), err.get_msg());
-                                        data.set_type(new StaticType(err));
+                                t = types.get(0).add(types.get(1));
+                                if (t.is_error()) {
+                                        log_type_error(node.get_pos(), t);
                                 }
+                                set_type(node, t);
                                 break;
                                 
                         case Subtraction:
                                 t = types.get(0).sub(types.get(1));
-                                if (t == null) {
-                                        log_type_error(node.get_pos(), "Sub must have same type.");
-                                        data.set_type(types.get(0));
-                                } else {
-                                        data.set_type(t);
+                                if (t.is_error()) {
+                                        log_type_error(node.get_pos(), t);
                                 }
+                                set_type(node, t);
                                 break;
                                 
                         case Multiplication:
                                 t = types.get(0).mul(types.get(1));
-                                if (t == null) {
-                                        log_type_error(node.get_pos(), "Mul must have same type.");
-                                        data.set_type(types.get(0));
-                                } else {
-                                        data.set_type(t);
+                                if (t.is_error()) {
+                                        log_type_error(node.get_pos(), t);
                                 }
+                                set_type(node, t);
                                 break;
                                 
                         case Division:
                                 t = types.get(0).div(types.get(1));
-                                if (t == null) {
-                                        log_type_error(node.get_pos(), "Div must have same type.");
-                                        data.set_type(types.get(0));
-                                } else {
-                                        data.set_type(t);
+                                if (t.is_error()) {
+                                        log_type_error(node.get_pos(), t);
                                 }
+                                set_type(node, t);
                                 break;
                                 
                         case IfElseBranch:
-                                try {
-                                        types.get(0).check_cond("IfElseBranch");
-                                } catch (TypeError err) {
-                                        log_type_error(node.get_pos(), err.get_msg());
+                                t = types.get(0).check_cond("IfElseBranch");
+                                if (t != null) {
+                                        log_type_error(node.get_pos(), t);
                                 }
                                 break;
                                 
                         case WhileLoop:
-                                try {
-                                        types.get(0).check_cond("WhileLoop");
-                                } catch (TypeError err) {
-                                        log_type_error(node.get_pos(), err.get_msg());
+                                t = types.get(0).check_cond("WhileLoop");
+                                if (t != null) {
+                                        log_type_error(node.get_pos(), t);
                                 }
                                 break;
 		}
 	}
 
+        // Check the function m_curr_func, already declared.
+        private void check_function(ASTNode func) {
+                enter_function(func);
+                func.walk(new GeneralNode.Visitor() {
+                        @Override
+                        public boolean pre(GeneralNode n, int depth) {
+                                if (n != func) {
+                                        enter((ASTNode) n);
+                                }
+                                return true;
+                        }
+
+                        @Override
+                        public void post(GeneralNode n, int depth) {
+                                leave((ASTNode) n);
+                        }
+                });
+        }
+
+        private void check_split(ASTNode root) {
+                enter(root);
+
+                // Declare the top level declarations in order, checking all but the function bodies.
+                List<Unit> units = new ArrayList<>();
+                List<Unit> funcs = new ArrayList<>();
+                ErrorReport errs = m_errs;
+                for (int i = 0; i < root.children_size(); i++) {
+                        ASTNode c = (ASTNode) root.get_child(i);
+                        if (c == null) {
+                                continue;
+                        }
+                        Unit u = new Unit(c);
+                        units.add(u);
+                        m_errs = u.m_errs;
+                        try {
+                                if (kind(c) == AbstractMetaData.Type.FunctionDefinition) {
+                                        u.m_func = declare_symbol(terminal(c, 0), type(c));
+                                        u.m_scope = m_table.snapshot();
+                                        funcs.add(u);
+                                } else {
+                                        check(c);
+                                }
+                        } catch (RuntimeException | Error e) {
+                                // Nothing after it is checked.
+                                u.m_crash = e;
+                                break;
+                        }
+                }
+                m_errs = errs;
+
+                check_runs(funcs);
+
+                for (Unit u : units) {
+                        if (u.m_crash instanceof RuntimeException) {
+                                throw (RuntimeException) u.m_crash;
+                        } else if (u.m_crash != null) {
+                                throw (Error) u.m_crash;
+                        }
+                        m_has_main |= u.m_has_main;
+                        for (CompilingError err : u.m_errs.get()) {
+                                m_errs.add(err);
+                        }
+                }
+                leave(root);
+        }
+
+        // Check the bodies of funcs in runs of about the same number of nodes, the first
+        // one on the calling thread.
+        private void check_runs(List<Unit> funcs) {
+                int total = 0;
+                int[] weights = new int[funcs.size()];
+                for (int i = 0; i < weights.length; i++) {
+                        weights[i] = size(funcs.get(i).m_node);
+                        total += weights[i];
+                }
+                int runs = Math.max(1, Math.min(m_pool.getParallelism()*RUNS_PER_THREAD, total/MIN_RUN));
+                List<List<Unit>> split = new ArrayList<>();
+                List<Unit> run = new ArrayList<>();
+                int weight = 0;
+                for (int i = 0; i < weights.length; i++) {
+                        run.add(funcs.get(i));
+                        weight += weights[i];
+                        if ((long) weight*runs >= (long) total*(split.size() + 1) && split.size() + 1 < runs) {
+                                split.add(run);
+                                run = new ArrayList<>();
+                        }
+                }
+                split.add(run);
+
+                SymbolTable globals = m_table;
+                List<ForkJoinTask<?>> tasks = new ArrayList<>();
+                for (int r = 1; r < split.size(); r++) {
+                        List<Unit> rest = split.get(r);
+                        tasks.add(start(() -> check_run(globals, m_main, rest)));
+                }
+                check_run(globals, m_main, split.get(0));
+                for (ForkJoinTask<?> task : tasks) {
+                        task.join();
+                }
+        }
+
+        // Check a run of function bodies on a worker of its own. A body that fails ends
+        // the run, since the analysis ends there.
+        private static void check_run(SymbolTable globals, int main, List<Unit> run) {
+                SemanticsAnalyzer worker = new SemanticsAnalyzer(globals, main);
+                for (Unit u : run) {
+                        worker.m_errs = u.m_errs;
+                        worker.m_table.reset(u.m_scope);
+                        worker.m_curr_func = u.m_func;
+                        worker.m_has_main = false;
+                        try {
+                                worker.check_function(u.m_node);
+                        } catch (RuntimeException | Error e) {
+                                u.m_crash = e;
+                                return;
+                        }
+                        u.m_has_main = worker.m_has_main;
+                }
+        }
+
+        // Number of nodes walk() visits in the subtree.
+        private static int size(GeneralNode node) {
+                int[] size = {0};
+                node.walk(new GeneralNode.Visitor() {
+                        @Override
+                        public boolean pre(GeneralNode n, int depth) {
+                                size[0]++;
+                                return true;
+                        }
+
+                        @Override
+                        public void post(GeneralNode n, int depth) {
+                        }
+                });
+                return size[0];
+        }
+
+        // Fork into the current pool when already running on one, as in a batch.
+        private ForkJoinTask<?> start(Runnable run) {
+                ForkJoinTask<?> task = ForkJoinTask.adapt(run);
+                if (ForkJoinTask.inForkJoinPool()) {
+                        task.fork();
+                } else {
+                        m_pool.execute(task);
+                }
+                return task;
+        }
+
         @Override
         public void analyze(AST tree) throws ErrorReport {
                 m_has_main = false;
-                check(tree.get_root());
+                preload(tree.names());
+                if (m_pool == null) {
+                        check(tree.get_root());
+                } else {
+                        check_split(tree.get_root());
+                }
                 if (!m_has_main)
                         log_type_error(tree.get_root().get_pos(), "Doesn't have main.");
                 if (!m_errs.is_empty()) {
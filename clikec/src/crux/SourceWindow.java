@@ -0,0 +1,139 @@
+/*
+ * Copyright (C) 2017 davis
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package crux;
+
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * A char array window over a reader, addressed by absolute character offset.
+ * Lookahead and backtracking are plain index arithmetic on the caller's side;
+ * the window only needs to be told which prefix is no longer needed.
+ * @author davis
+ */
+public class SourceWindow implements ISource {
+
+        private static final int        BLOCK_SIZE = 8192;
+
+        private final Reader            m_reader;
+        private char[]                  m_buf = new char[BLOCK_SIZE];
+
+        // Absolute offset of m_buf[0].
+        private int                     m_base = 0;
+        // Number of valid characters in m_buf.
+        private int                     m_lim = 0;
+        // Absolute offset before which characters may be discarded.
+        private int                     m_keep = 0;
+        private boolean                 m_eof = false;
+
+        /**
+         * @param reader character source, read in blocks of BLOCK_SIZE.
+         */
+        public SourceWindow(Reader reader) {
+                m_reader = reader;
+        }
+
+        @Override
+        public int at(int offset) throws IOException {
+                int i = offset - m_base;
+                if (i < m_lim) {
+                        return m_buf[i];
+                }
+                return fill(offset) ? m_buf[offset - m_base] : -1;
+        }
+
+        /**
+         * Allow characters before offset to be discarded at the next refill.
+         * @param offset absolute character offset.
+         */
+        @Override
+        public void release(int offset) {
+                m_keep = offset;
+        }
+
+        /**
+         * @param begin absolute offset of the first character, must not be released.
+         * @param end absolute offset past the last character.
+         * @return the characters in [begin, end).
+         */
+        @Override
+        public String slice(int begin, int end) {
+                return new String(m_buf, begin - m_base, end - begin);
+        }
+
+        @Override
+        public int skip_spaces(int offset) throws IOException {
+                while (true) {
+                        int i = offset - m_base;
+                        while (i < m_lim && ISource.is_space(m_buf[i])) {
+                                i++;
+                        }
+                        offset = m_base + i;
+                        if (i < m_lim || !fill(offset)) {
+                                return offset;
+                        }
+                }
+        }
+
+        @Override
+        public int find_newline(int offset) throws IOException {
+                while (true) {
+                        int i = offset - m_base;
+                        while (i < m_lim && m_buf[i] != '\n') {
+                                i++;
+                        }
+                        offset = m_base + i;
+                        if (i < m_lim || !fill(offset)) {
+                                return offset;
+                        }
+                }
+        }
+
+        private boolean fill(int offset) throws IOException {
+                while (!m_eof && offset - m_base >= m_lim) {
+                        if (m_lim == m_buf.length) {
+                                int drop = m_keep - m_base;
+                                if (drop > 0) {
+                                        System.arraycopy(m_buf, drop, m_buf, 0, m_lim - drop);
+                                        m_lim -= drop;
+                                        m_base = m_keep;
+                                } else {
+                                        char[] buf = new char[m_buf.length*2];
+                                        System.arraycopy(m_buf, 0, buf, 0, m_lim);
+                                        m_buf = buf;
+                                }
+                        }
+                        int n = m_reader.read(m_buf, m_lim, m_buf.length - m_lim);
+                        if (n < 0) {
+                                m_eof = true;
+                        } else {
+                                m_lim += n;
+                        }
+                }
+                return offset - m_base < m_lim;
+        }
+
+        /**
+         * Close the reader. Characters already read, and not released, stay readable.
+         * @throws IOException
+         */
+        @Override
+        public void close() throws IOException {
+                m_reader.close();
+        }
+}
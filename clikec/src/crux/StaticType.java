@@ -17,10 +17,24 @@
  */
 package crux;
 
+import java.lang.ref.WeakReference;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
+ * Types are hash-consed: there is one instance per type, made by the factories
+ * below, so two types are the same if they are the same reference, or have the same
+ * id(). Instances are immutable and shared by every tree and thread. The pools
+ * of types only hold them weakly, so a long lived process such as CompileServer
+ * keeps the types of the trees still in use, not of every tree it has seen.
+ * A failed operation or check returns an error type, which records the check and
+ * its operands and formats its message when first asked for. Error types are not
+ * shared, and neither are argument lists with an error among them.
  * @author davis
  */
 public class StaticType implements IType {
@@ -36,66 +50,240 @@ public class StaticType implements IType {
 		ARGS,
 	};
 
+        // Failed operations and checks, for the message of an error type.
+        private enum Check {
+                ADD,
+                SUB,
+                MUL,
+                DIV,
+                AND,
+                OR,
+                NOT,
+                COMPARE,
+                DEREF,
+                INDEX,
+                CALL,
+                RET,
+                ASSIGN,
+                ENTRANCE,
+                VOID_ARG,
+                UNKNOWN_ARG,
+                VOID_ARRAY,
+                VOID_VAR,
+                COND,
+        }
+
+        /**
+         * Types by key. An entry lives as long as its type, which holds the key.
+         */
+        private static final class Pool<K> {
+
+                private final Map<K, WeakReference<StaticType>> m_types = new WeakHashMap<>();
+
+                synchronized StaticType get(K key) {
+                        WeakReference<StaticType> ref = m_types.get(key);
+                        return ref == null ? null : ref.get();
+                }
+
+                /**
+                 * @param type a new type, whose m_key is key.
+                 * @return the type interned under key, type if there was none.
+                 */
+                synchronized StaticType intern(K key, StaticType type) {
+                        StaticType prev = get(key);
+                        if (prev != null) {
+                                return prev;
+                        }
+                        // A dead entry keeps its own key, which nothing holds any more.
+                        m_types.remove(key);
+                        m_types.put(key, new WeakReference<>(type));
+                        return type;
+                }
+        }
+
+        private static final AtomicInteger                      s_ids = new AtomicInteger();
+        private static final Pool<String>                       s_unknowns = new Pool<>();
+        // Arrays by element and dimension.
+        private static final Pool<List<Object>>                 s_arrays = new Pool<>();
+        // Argument lists by their types, and functions by return type and argument list.
+        private static final Pool<List<StaticType>>             s_args = new Pool<>();
+        private static final Pool<List<StaticType>>             s_funcs = new Pool<>();
+
+        private static final List<StaticType> NO_TYPES = Collections.emptyList();
+
+        public static final StaticType INT = new StaticType(T.INT, null, null, NO_TYPES, 0);
+        public static final StaticType FLOAT = new StaticType(T.FLOAT, null, null, NO_TYPES, 0);
+        public static final StaticType BOOL = new StaticType(T.BOOL, null, null, NO_TYPES, 0);
+        public static final StaticType VOID = new StaticType(T.VOID, null, null, NO_TYPES, 0);
+
 	private final T			m_type;
-        private String                  m_unknown = null;
+        private final int               m_id;
+        private final String            m_unknown;
 	private final StaticType 	m_sub_type;
 	private final List<StaticType>	m_types;
-        private int                     m_dim;
+        private final int               m_dim;
+        // Argument list of a function type.
+        private final StaticType        m_args;
+        // Key of the type in its pool, held so that the entry lives as long as the
+        // type; null if it is not pooled.
+        private final Object            m_key;
+
+        // Error types: the failed check, the types and the name the message shows, and
+        // the message once formatted.
+        private final Check             m_check;
+        private final StaticType        m_lhs;
+        private final StaticType        m_rhs;
+        private final String            m_name;
+        private final int               m_pos;
+        private String                  m_msg;
+
+        private StaticType(T type, String unknown, StaticType sub_type, List<StaticType> types, int dim) {
+                this(type, unknown, sub_type, types, dim, null);
+        }
+
+        private StaticType(T type, String unknown, StaticType sub_type, List<StaticType> types, int dim, Object key) {
+                m_type = type;
+                m_id = s_ids.getAndIncrement();
+                m_unknown = unknown;
+                m_sub_type = sub_type;
+                m_types = types;
+                m_dim = dim;
+                m_args = type == T.FUNC ? args(types) : null;
+                m_key = key;
+                m_check = null;
+                m_lhs = null;
+                m_rhs = null;
+                m_name = null;
+                m_pos = 0;
+        }
+
+        private StaticType(Check check, StaticType lhs, StaticType rhs, String name, int pos) {
+                m_type = T.NULL;
+                m_id = s_ids.getAndIncrement();
+                m_unknown = null;
+                m_sub_type = null;
+                m_types = NO_TYPES;
+                m_dim = 0;
+                m_args = null;
+                m_key = null;
+                m_check = check;
+                m_lhs = lhs;
+                m_rhs = rhs;
+                m_name = name;
+                m_pos = pos;
+        }
+
+        /**
+         * @param type one of INT, FLOAT, BOOL and VOID.
+         * @return the primitive type.
+         */
+        public static StaticType of(T type) {
+                switch (type) {
+                        case INT:
+                                return INT;
+                        case FLOAT:
+                                return FLOAT;
+                        case BOOL:
+                                return BOOL;
+                        case VOID:
+                                return VOID;
+                        default:
+                                throw new IllegalArgumentException(type.toString());
+                }
+        }
 
-	public StaticType(String typename) {
+        /**
+         * @param typename name of a type in the source.
+         * @return the primitive type of that name, or an unknown type printed as the name.
+         */
+        public static StaticType of(String typename) {
                 switch (typename) {
                         case "int":
-                                m_type = T.INT;
-                                break;
+                                return INT;
                         case "float":
-                                m_type = T.FLOAT;
-                                break;
+                                return FLOAT;
                         case "bool":
-                                m_type = T.BOOL;
-                                break;
+                                return BOOL;
                         case "void":
-                                m_type = T.VOID;
-                                break;
+                                return VOID;
                         default:
-                                m_type = T.NULL;
-                                m_unknown = typename;
-                                break;
+                                StaticType type = s_unknowns.get(typename);
+                                if (type == null) {
+                                        type = s_unknowns.intern(typename,
+                                                new StaticType(T.NULL, typename, null, NO_TYPES, 0, typename));
+                                }
+                                return type;
                 }
-		m_sub_type = null;
-		m_types = new ArrayList<>();
-	}
-        
-        public StaticType(TypeError err) {
-                m_type = T.NULL;
-                m_unknown = "ErrorType(" + err.get_msg() + ")";
-                m_sub_type = null;
-		m_types = new ArrayList<>();
-	}
-        
-        public StaticType(T type) {
-                m_type = type;
-		m_sub_type = null;
-		m_types = new ArrayList<>();
-	}
+        }
 
-	public StaticType(StaticType sub_type, int dim) {
-		m_type = T.ARRAY;
-		m_sub_type = sub_type;
-                m_dim = dim;
-		m_types = new ArrayList<>();
-	}
+        /**
+         * @param sub_type element type.
+         * @param dim number of elements.
+         * @return the array type.
+         */
+        public static StaticType array(StaticType sub_type, int dim) {
+                List<Object> key = Arrays.<Object>asList(sub_type, dim);
+                StaticType type = s_arrays.get(key);
+                if (type == null) {
+                        type = s_arrays.intern(key, new StaticType(T.ARRAY, null, sub_type, NO_TYPES, dim, key));
+                }
+                return type;
+        }
 
-	public StaticType(StaticType sub_type, List<StaticType> types) {
-		m_type = T.FUNC;
-		m_sub_type = sub_type;
-		m_types = types;
-	}
+        /**
+         * @param types argument types.
+         * @return the argument list type; not shared if one of types is an error.
+         */
+        public static StaticType args(List<StaticType> types) {
+                for (StaticType t : types) {
+                        if (t.m_check != null) {
+                                return new StaticType(T.ARGS, null, null, Collections.unmodifiableList(new ArrayList<>(types)), 0);
+                        }
+                }
+                StaticType type = s_args.get(types);
+                if (type == null) {
+                        List<StaticType> key = Collections.unmodifiableList(new ArrayList<>(types));
+                        type = s_args.intern(key, new StaticType(T.ARGS, null, null, key, 0, key));
+                }
+                return type;
+        }
 
-	public StaticType(List<StaticType> types) {
-		m_type = T.ARGS;
-		m_sub_type = null;
-		m_types = types;
-	}
+        /**
+         * @param ret_type return type.
+         * @param types argument types.
+         * @return the function type.
+         */
+        public static StaticType func(StaticType ret_type, List<StaticType> types) {
+                StaticType[] sig = new StaticType[types.size() + 1];
+                sig[0] = ret_type;
+                for (int i = 0; i < types.size(); i++) {
+                        sig[i + 1] = types.get(i);
+                }
+                List<StaticType> key = Arrays.asList(sig);
+                StaticType type = s_funcs.get(key);
+                if (type == null) {
+                        List<StaticType> args = Collections.unmodifiableList(key.subList(1, sig.length));
+                        type = s_funcs.intern(key, new StaticType(T.FUNC, null, ret_type, args, 0, key));
+                }
+                return type;
+        }
+
+        // Error of an operation.
+        private static StaticType error(Check check, StaticType lhs, StaticType rhs) {
+                return new StaticType(check, lhs, rhs, null, 0);
+        }
+
+        // Error of a check on a named declaration or construct.
+        private static StaticType error(Check check, StaticType lhs, StaticType rhs, String name, int pos) {
+                return new StaticType(check, lhs, rhs, name, pos);
+        }
+
+        /**
+         * @return number identifying the type among those made so far.
+         */
+        public int id() {
+                return m_id;
+        }
         
 	public StaticType return_type() {
 		switch (m_type) {
@@ -120,11 +308,7 @@ public class StaticType implements IType {
         
         @Override
         public List<IType> sub_decls() {
-                List<IType> sub_decls = new ArrayList<>();
-                m_types.forEach((t) -> {
-                        sub_decls.add(t);
-                });
-                return sub_decls;
+                return Collections.<IType>unmodifiableList(m_types);
         }
         
         private String build_array_string(StringBuilder b, StaticType type) {
@@ -149,7 +333,9 @@ public class StaticType implements IType {
         }
         
         private String type_string() {
-                if (m_unknown != null) {
+                if (m_check != null) {
+                        return "ErrorType(" + error_msg() + ")";
+                } else if (m_unknown != null) {
                         return m_unknown;
                 } else {
                         switch (m_type) {
@@ -165,113 +351,192 @@ public class StaticType implements IType {
                 }
         }
 
-	@Override
-	public IType add(IType that) throws TypeError {
-		if (return_type().m_type == ((StaticType) that).m_type && 
-		    (return_type().m_type == T.INT || return_type().m_type == T.FLOAT)) {
-                        return return_type();
-                } else {
-                        throw new TypeError("Cannot add " + return_type().type_string()
-                                            + " with " + ((StaticType) that).type_string() + ".");
+        @Override
+        public boolean is_error() {
+                return m_check != null;
+        }
+
+        @Override
+        public String error_msg() {
+                if (m_check == null || m_msg != null) {
+                        return m_msg;
                 }
-	}
+                // Errors among the operands are formatted first, innermost first, so a
+                // long chain of errors is not formatted recursively.
+                List<StaticType> pending = new ArrayList<>();
+                pending.add(this);
+                while (!pending.isEmpty()) {
+                        StaticType err = pending.get(pending.size() - 1);
+                        StaticType next = err.unformatted_operand();
+                        if (next != null) {
+                                pending.add(next);
+                        } else {
+                                err.m_msg = err.format();
+                                pending.remove(pending.size() - 1);
+                        }
+                }
+                return m_msg;
+        }
 
-	@Override
-	public IType sub(IType that) throws TypeError {
+        private static boolean unformatted(StaticType t) {
+                return t != null && t.m_check != null && t.m_msg == null;
+        }
+
+        private StaticType unformatted_operand() {
+                if (unformatted(m_lhs)) {
+                        return m_lhs;
+                }
+                if (unformatted(m_rhs)) {
+                        return m_rhs;
+                }
+                if (m_rhs != null) {
+                        for (StaticType t : m_rhs.m_types) {
+                                if (unformatted(t)) {
+                                        return t;
+                                }
+                        }
+                }
+                return null;
+        }
+
+        private String format() {
+                switch (m_check) {
+                        case ADD:
+                                return "Cannot add " + m_lhs.type_string() + " with " + m_rhs.type_string() + ".";
+                        case SUB:
+                                return "Cannot subtract " + m_lhs.type_string() + " with " + m_rhs.type_string() + ".";
+                        case MUL:
+                                return "Cannot multiply " + m_lhs.type_string() + " with " + m_rhs.type_string() + ".";
+                        case DIV:
+                                return "Cannot divide " + m_lhs.type_string() + " with " + m_rhs.type_string() + ".";
+                        case AND:
+                                return "Cannot compute " + m_lhs.type_string() + " and " + m_rhs.type_string() + ".";
+                        case OR:
+                                return "Cannot compute " + m_lhs.type_string() + " or " + m_rhs.type_string() + ".";
+                        case NOT:
+                                return "Cannot negate " + m_lhs.type_string() + ".";
+                        case COMPARE:
+                                return "Cannot compare " + m_lhs.type_string() + " with " + m_rhs.type_string() + ".";
+                        case DEREF:
+                                return "Cannot dereference " + m_lhs.type_string();
+                        case INDEX:
+                                return "Cannot index Address(" + m_lhs.type_string() + ") with " + m_rhs.type_string() + ".";
+                        case CALL:
+                                return "Cannot call func" + m_lhs.type_string() + " using " + m_rhs.type_string() + ".";
+                        case RET:
+                                return "Function " + m_name + " returns " + m_lhs.m_type.toString().toLowerCase()
+                                       + " not " + m_rhs.type_string() + ".";
+                        case ASSIGN:
+                                return "Cannot assign " + m_rhs.type_string() + " to Address(" + m_lhs.type_string() + ").";
+                        case ENTRANCE:
+                                return "Function main has invalid signature.";
+                        case VOID_ARG:
+                                return "Function " + m_name + " has a void argument in position " + m_pos + ".";
+                        case UNKNOWN_ARG:
+                                return "Function " + m_name + " has an error in argument in position " + m_pos
+                                       + ": Unknown type: " + m_lhs.m_unknown;
+                        case VOID_ARRAY:
+                                return "Array " + m_name + " has invalid base type void.";
+                        case VOID_VAR:
+                                return "Variable " + m_name + " has invalid type void.";
+                        default:
+                                return m_name + " requires bool condition not " + m_lhs.type_string() + ".";
+                }
+        }
+
+        // Operands of the same numeric type.
+        private IType arith(Check check, IType that) {
                 if (return_type().m_type == ((StaticType) that).m_type && 
 		    (return_type().m_type == T.INT || return_type().m_type == T.FLOAT)) {
                         return return_type();
                 } else {
-                        throw new TypeError("Cannot subtract " + return_type().type_string()
-                                            + " with " + ((StaticType) that).type_string() + ".");
+                        return error(check, return_type(), (StaticType) that);
                 }
+        }
+
+	@Override
+	public IType add(IType that) {
+                return arith(Check.ADD, that);
 	}
 
 	@Override
-	public IType mul(IType that) throws TypeError {
-                if (return_type().m_type == ((StaticType) that).m_type && 
-		    (return_type().m_type == T.INT || return_type().m_type == T.FLOAT)) {
-                        return return_type();
-                } else {
-                        throw new TypeError("Cannot multiply " + return_type().type_string()
-                                            + " with " + ((StaticType) that).type_string() + ".");
-                }
+	public IType sub(IType that) {
+                return arith(Check.SUB, that);
 	}
 
 	@Override
-	public IType div(IType that) throws TypeError {
-                if (return_type().m_type == ((StaticType) that).m_type && 
-		    (return_type().m_type == T.INT || return_type().m_type == T.FLOAT)) {
-                        return return_type();
-                } else {
-                        throw new TypeError("Cannot divide " + return_type().type_string()
-                                            + " with " + ((StaticType) that).type_string() + ".");
-                }
+	public IType mul(IType that) {
+                return arith(Check.MUL, that);
+	}
+
+	@Override
+	public IType div(IType that) {
+                return arith(Check.DIV, that);
 	}
 
 	@Override
-	public IType and(IType that) throws TypeError {
+	public IType and(IType that) {
 		if (return_type().m_type == ((StaticType) that).m_type && 
 		    return_type().m_type == T.BOOL) {
                         return return_type();
                 } else {
-                        throw new TypeError("Cannot compute " + return_type().type_string() 
-                                + " and " + ((StaticType) that).type_string() + ".");
+                        return error(Check.AND, return_type(), (StaticType) that);
                 }
 	}
 
 	@Override
-	public IType or(IType that) throws TypeError {
+	public IType or(IType that) {
                 if (return_type().m_type == ((StaticType) that).m_type && 
 		    return_type().m_type == T.BOOL) {
                         return return_type();
                 } else {
-                        throw new TypeError("Cannot compute " + return_type().type_string() 
-                                + " or " + ((StaticType) that).type_string() + ".");
+                        return error(Check.OR, return_type(), (StaticType) that);
                 }
 	}
 
 	@Override
-	public IType not() throws TypeError {
+	public IType not() {
 		if (return_type().m_type == T.BOOL) {
                         return return_type();
                 } else {
-                        throw new TypeError("Cannot negate " + return_type().type_string() + ".");
+                        return error(Check.NOT, return_type(), null);
                 }
 	}
 
 	@Override
-	public IType compare(IType that) throws TypeError {
+	public IType compare(IType that) {
 		if (return_type().m_type == ((StaticType) that).m_type && 
 		    (return_type().m_type == T.INT || return_type().m_type == T.FLOAT)) {
-                        return new StaticType(T.BOOL);
+                        return BOOL;
                 } else {
-                        throw new TypeError("Cannot compare " + return_type().type_string() + " with " + ((StaticType) that).type_string() + ".");
+                        return error(Check.COMPARE, return_type(), (StaticType) that);
                 }
 	}
 
 	@Override
-	public IType deref() throws TypeError {
+	public IType deref() {
                 if (m_type == T.BOOL || m_type == T.INT || m_type == T.FLOAT || m_type == T.ARRAY)
                         return return_type();
                 else
-                        throw new TypeError("Cannot dereference " + return_type().type_string());
+                        return error(Check.DEREF, return_type(), null);
 	}
 
 	@Override
-	public IType index(IType that) throws TypeError {
+	public IType index(IType that) {
 		if (m_type == T.ARRAY && ((StaticType) that).m_type == T.INT) {
                         return return_type().m_sub_type;
                 } else {
-                        throw new TypeError("Cannot index Address(" + return_type().type_string() 
-                                + ") with " + ((StaticType) that).type_string() + ".");
+                        return error(Check.INDEX, return_type(), (StaticType) that);
                 }
 	}
 
 	@Override
-	public IType call(IType args, String func_name) throws TypeError {
+	public IType call(IType args, String func_name) {
                 boolean is_compatible = true;
 		StaticType t = (StaticType) args;
+                if (t == m_args) {
+                        return return_type();
+                }
 		if (t.m_type != T.ARGS || t.m_types.size() != m_types.size()) {
 			is_compatible = false;
                 } else {
@@ -285,50 +550,45 @@ public class StaticType implements IType {
                 if (is_compatible) {
                         return return_type();
                 } else {
-                        throw new TypeError("Cannot call func" + type_string() + " using " + ((StaticType) args).type_string() + ".");
+                        return error(Check.CALL, this, t);
                 }
 	}
         
         @Override
-        public IType ret(IType value, String func_name) throws TypeError {
+        public IType ret(IType value, String func_name) {
                 if (return_type().m_type == ((StaticType) value).return_type().m_type) {
                         return value;
                 } else {
-                        throw new TypeError("Function " + func_name + " returns " 
-                                + return_type().m_type.toString().toLowerCase() + " not " 
-                                + ((StaticType) value).return_type().type_string() + ".");
+                        return error(Check.RET, return_type(), ((StaticType) value).return_type(), func_name, 0);
                 }
         }
 
 	@Override
-	public IType assign(IType source) throws TypeError {
+	public IType assign(IType source) {
 		if (return_type().m_type == ((StaticType) source).m_type && 
 		    (return_type().m_type == T.INT || return_type().m_type == T.FLOAT || return_type().m_type == T.BOOL)) {
                         return return_type();
                 } else {
-                        throw new TypeError("Cannot assign "
-                                        + ((StaticType) source).type_string() + " to Address(" + return_type().type_string() + ").");
+                        return error(Check.ASSIGN, return_type(), (StaticType) source);
                 }
 	}
         
         @Override
-        public void check_entrance() throws TypeError {
+        public IType check_entrance() {
                 if (m_type != T.FUNC || m_sub_type.m_type != T.VOID || !m_types.isEmpty())
-                        throw new TypeError("Function main has invalid signature.");
+                        return error(Check.ENTRANCE, this, null, null, 0);
+                return null;
         }
         
         @Override
-        public void check_decl(String name) throws TypeError {
+        public IType check_decl(String name) {
                 switch (m_type) {
                         case FUNC:
                                 for (int i = 0; i < m_types.size(); i ++) {
                                         if (m_types.get(i).m_type == T.VOID)
-                                                throw new TypeError("Function " + name 
-                                                        + " has a void argument in position " + i + ".");
+                                                return error(Check.VOID_ARG, this, null, name, i);
                                         if (m_types.get(i).m_unknown != null)
-                                                throw new TypeError("Function " + name 
-                                                        + " has an error in argument in position " + i + ": Unknown type: "
-                                                        + m_types.get(i).m_unknown);
+                                                return error(Check.UNKNOWN_ARG, m_types.get(i), null, name, i);
                                 }
                                 break;
                         case ARRAY:
@@ -337,19 +597,21 @@ public class StaticType implements IType {
                                         base = base.m_sub_type;
                                 } while (base.m_type == T.ARRAY);
                                 if (base.m_type == T.VOID)
-                                        throw new TypeError("Array " + name + " has invalid base type void.");
+                                        return error(Check.VOID_ARRAY, this, null, name, 0);
                                 break;
                         case VOID:
                                 if (m_type == T.VOID)
-                                        throw new TypeError("Variable " + name + " has invalid type void.");
+                                        return error(Check.VOID_VAR, this, null, name, 0);
                                 break;
                 }
+                return null;
         }
         
         @Override
-        public void check_cond(String constr) throws TypeError {
+        public IType check_cond(String constr) {
                 if (m_type != T.BOOL)
-                        throw new TypeError(constr + " requires bool condition not " + type_string() + ".");
+                        return error(Check.COND, this, null, constr, 0);
+                return null;
         }
         
         @Override
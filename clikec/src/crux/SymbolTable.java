@@ -18,89 +18,197 @@
 package crux;
 
 import java.util.ArrayList;
-import java.util.LinkedHashMap;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
-import java.util.Map;
 
 /**
+ * Scoped symbols keyed by NameTable id, all scopes in one structure.
+ * Symbols are bindings on a stack, each shadowing the previous binding of its name;
+ * an index from name id to the innermost binding makes search() a single probe
+ * whatever the nesting. Leaving a scope pops its bindings and restores what they
+ * shadowed. Bindings never change once pushed, so the stack as it is at one point
+ * can be kept for later at no cost, see snapshot(). A table can also start from a
+ * snapshot of another one, the global scope, which it only reads: see
+ * SymbolTable(SymbolTable) and reset().
  * @author davis
  */
 public class SymbolTable {
 
+        private static final class Binding {
+
+                final Symbol    m_sym;
+                final int       m_name;
+                final int       m_depth;
+                // Position on the stack.
+                final int       m_seq;
+                // Binding of the same name this one shadows, and the one below on the stack.
+                final Binding   m_shadowed;
+                final Binding   m_prev;
+
+                Binding(Symbol sym, int name, int depth, Binding shadowed, Binding prev) {
+                        m_sym = sym;
+                        m_name = name;
+                        m_depth = depth;
+                        m_seq = prev == null ? 0 : prev.m_seq + 1;
+                        m_shadowed = shadowed;
+                        m_prev = prev;
+                }
+        }
+
+        /**
+         * The symbols of the open scopes at one point, outermost first.
+         */
+        public static final class Snapshot {
+
+                private final Binding m_last;
+
+                private Snapshot(Binding last) {
+                        m_last = last;
+                }
+
+                private List<Binding> bindings() {
+                        List<Binding> bs = new ArrayList<>();
+                        for (Binding b = m_last; b != null; b = b.m_prev) {
+                                bs.add(b);
+                        }
+                        Collections.reverse(bs);
+                        return bs;
+                }
+
+                public boolean is_empty() {
+                        return m_last == null;
+                }
+
+                /**
+                 * @return a line per symbol, indented two spaces per scope depth.
+                 */
+                @Override
+                public String toString() {
+                        StringBuilder s = new StringBuilder();
+                        for (Binding b : bindings()) {
+                                if (s.length() != 0) {
+                                        s.append('\n');
+                                }
+                                for (int i = 0; i < b.m_depth; i++) {
+                                        s.append("  ");
+                                }
+                                s.append(b.m_sym.toString());
+                        }
+                        return s.toString();
+                }
+        }
+
+        // Innermost binding by name id, or null.
+        private Binding[]                       m_top = new Binding[64];
+        private Binding                         m_last = null;
+        // Function scope flag of each open scope, outermost first.
+        private boolean[]                       m_function = new boolean[16];
         private int                             m_curr_depth = 0;
-        private boolean                         m_is_function = false;
-        private SymbolTable                     m_parent = null;
-        private final Map<String, Symbol>       m_symbols = new LinkedHashMap<>();
+        // Table whose bindings up to m_base are visible below this table's own.
+        private final SymbolTable               m_globals;
+        private Binding                         m_base = null;
         
         public SymbolTable() {
+                m_globals = null;
         }
-        
-        public SymbolTable enter_scope() {
-                SymbolTable next = new SymbolTable();
-                next.m_parent = this;
-                next.m_curr_depth = m_curr_depth + 1;
-                return next;
+
+        /**
+         * A table over a snapshot of globals, set by reset(). globals must no longer
+         * change, and may then be shared by tables on several threads.
+         * @param globals table of the global scope.
+         */
+        public SymbolTable(SymbolTable globals) {
+                m_globals = globals;
+        }
+
+        /**
+         * Pop every binding of this table and start over from a snapshot of the globals,
+         * at depth 0.
+         * @param scope snapshot of the table given to the constructor.
+         */
+        public void reset(Snapshot scope) {
+                while (m_last != m_base) {
+                        m_top[m_last.m_name] = m_last.m_shadowed;
+                        m_last = m_last.m_prev;
+                }
+                m_base = scope.m_last;
+                m_last = m_base;
+                m_curr_depth = 0;
+                m_function[0] = false;
         }
         
-        public SymbolTable leave_scope() {
-                return m_parent;
+        public void enter_scope() {
+                if (++m_curr_depth == m_function.length) {
+                        m_function = Arrays.copyOf(m_function, m_curr_depth*2);
+                }
+                m_function[m_curr_depth] = false;
         }
         
-        public boolean put(String name, Symbol symbol) {
-                if (m_symbols.containsKey(name))
+        public void leave_scope() {
+                while (m_last != null && m_last.m_depth == m_curr_depth) {
+                        m_top[m_last.m_name] = m_last.m_shadowed;
+                        m_last = m_last.m_prev;
+                }
+                m_curr_depth--;
+        }
+
+        /**
+         * @param name NameTable id of the symbol.
+         * @param symbol the symbol.
+         * @return false if name is already declared in this scope.
+         */
+        public boolean put(int name, Symbol symbol) {
+                if (name >= m_top.length) {
+                        m_top = Arrays.copyOf(m_top, Math.max(name + 1, m_top.length*2));
+                }
+                Binding shadowed = m_top[name];
+                Binding visible = shadowed != null ? shadowed : global(name);
+                if (visible != null && visible.m_depth == m_curr_depth)
                         return false;
-                m_symbols.put(name, symbol);
+                m_last = new Binding(symbol, name, m_curr_depth, shadowed, m_last);
+                m_top[name] = m_last;
                 return true;
         }
         
-        public Symbol search(String name) {
-                Symbol found = null;
-                SymbolTable scope = this;
-                do {
-                        found = scope.m_symbols.get(name);
-                        scope = scope.m_parent;
-                } while (scope != null && found == null);
-                return found;
+        public Symbol search(int name) {
+                Binding b = name < m_top.length ? m_top[name] : null;
+                if (b == null) {
+                        b = global(name);
+                }
+                return b == null ? null : b.m_sym;
+        }
+
+        // Binding of the globals visible from the snapshot this table starts from.
+        private Binding global(int name) {
+                if (m_globals == null || m_base == null || name >= m_globals.m_top.length) {
+                        return null;
+                }
+                Binding b = m_globals.m_top[name];
+                return b != null && b.m_seq <= m_base.m_seq ? b : null;
         }
         
         public void set_function_scope() {
-                m_is_function = true;
+                m_function[m_curr_depth] = true;
         }
         
         public boolean is_function_scope() {
-                return m_is_function;
+                return m_function[m_curr_depth];
         }
         
         public void unset_function_scope() {
-                m_is_function = false;
+                m_function[m_curr_depth] = false;
         }
         
         public int depth() {
                 return m_curr_depth;
         }
-        
-        public List<Symbol> log_symbols() {
-                List<SymbolTable> tables = new ArrayList<>();
-                
-                SymbolTable scope = this;
-                int d = 0;
-                do {
-                        tables.add(scope);
-                        scope = scope.m_parent;
-                        d ++;
-                } while (scope != null);
-                
-                List<Symbol> ss = new ArrayList<>();
-                
-                do {
-                        scope = tables.get(-- d);
-                        for (Map.Entry<String, Symbol> entry : scope.m_symbols.entrySet()) {
-                                Symbol s = entry.getValue();
-                                s.set_depth(tables.size() - d - 1);
-                                ss.add(s);
-                        }
-                } while (d > 0);
-                
-                return ss;
+
+        /**
+         * @return the symbols of the open scopes as they are now; later changes to the
+         * table do not show in it.
+         */
+        public Snapshot snapshot() {
+                return new Snapshot(m_last);
         }
 }
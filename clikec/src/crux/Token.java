@@ -70,9 +70,13 @@ public class Token extends SyntacticElement {
                 EOF,
         };
 
-        private final FilePointer m_fp;
+        private FilePointer m_fp;
         private final Lexeme m_type;
         private final String m_attri;
+        private final int m_name;
+        // Where to resolve m_fp from if it was not given.
+        private final LineIndex m_lines;
+        private final int m_offset;
 
         /**
          * Token construction with lexeme type, file location and attribute.
@@ -81,10 +85,42 @@ public class Token extends SyntacticElement {
          * @param attri additional attribute (optional).
          */
         public Token(Lexeme type, FilePointer fp, String attri) {
+                this(type, fp, attri, NameTable.NONE);
+        }
+
+        /**
+         * Token construction for an interned identifier.
+         * @param type lexeme type.
+         * @param fp file location.
+         * @param attri additional attribute (optional).
+         * @param name id of attri in the NameTable of the compilation, or NameTable.NONE.
+         */
+        public Token(Lexeme type, FilePointer fp, String attri, int name) {
                 super(SyntacticElement.Type.Terminal);
                 m_fp = fp;
                 m_type = type;
                 m_attri = attri;
+                m_name = name;
+                m_lines = null;
+                m_offset = 0;
+        }
+
+        /**
+         * Token construction with a location resolved on first use.
+         * @param type lexeme type.
+         * @param lines line index of the source.
+         * @param offset absolute source offset of the token.
+         * @param attri additional attribute (optional).
+         * @param name id of attri in the NameTable of the compilation, or NameTable.NONE.
+         */
+        public Token(Lexeme type, LineIndex lines, int offset, String attri, int name) {
+                super(SyntacticElement.Type.Terminal);
+                m_fp = null;
+                m_type = type;
+                m_attri = attri;
+                m_name = name;
+                m_lines = lines;
+                m_offset = offset;
         }
 
         /**
@@ -108,11 +144,29 @@ public class Token extends SyntacticElement {
         String attribute() {
                 return m_attri;
         }
+
+        /**
+         * @return id of the identifier in the NameTable, or NameTable.NONE.
+         */
+        int name_id() {
+                return m_name;
+        }
         
         FilePointer file_pointer() {
+                if (m_fp == null) {
+                        m_fp = m_lines.file_pointer(m_offset);
+                }
                 return m_fp;
         }
         
+        /**
+         * @param lines line offset.
+         * @return the same token, that many lines further down.
+         */
+        Token shift_lines(int lines) {
+                return new Token(m_type, FilePointer.shift_lines(file_pointer(), lines), m_attri, m_name);
+        }
+
         @Override
         public boolean equals(Object o) {
                 Token other = (Token) o;
@@ -131,6 +185,6 @@ public class Token extends SyntacticElement {
         @Override
         public String toString() {
                 return m_type.toString()
-                       + (m_attri == null || m_attri.isEmpty() ? "" : "(" + m_attri + ")") + m_fp;
+                       + (m_attri == null || m_attri.isEmpty() ? "" : "(" + m_attri + ")") + file_pointer();
         }
 }
@@ -0,0 +1,147 @@
+/*
+ * Copyright (C) 2017 davis
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package crux;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * A whole token stream packed into parallel primitive arrays.
+ * Token objects are only created on demand, e.g. for error messages and parse tree printing.
+ * The stream always ends with exactly one EOF token.
+ * @author davis
+ */
+public class TokenBuffer {
+
+        private static final Token.Lexeme[]     LEXEMES = Token.Lexeme.values();
+        private static final int                INITIAL_CAPACITY = 1024;
+
+        private final ISource   m_src;
+        private final NameTable m_names;
+        private final LineIndex m_lines;
+        private int             m_size = 0;
+        private int[]           m_lexeme = new int[INITIAL_CAPACITY];
+        private int[]           m_begin = new int[INITIAL_CAPACITY];
+        private int[]           m_len = new int[INITIAL_CAPACITY];
+        private int[]           m_name = new int[INITIAL_CAPACITY];
+
+        private TokenBuffer(ISource src, NameTable names, LineIndex lines) {
+                m_src = src;
+                m_names = names;
+                m_lines = lines;
+        }
+
+        /**
+         * Scan the whole input.
+         * @param s a freshly constructed scanner.
+         * @return every token up to and including EOF.
+         * @throws IOException
+         */
+        public static TokenBuffer scan(ILexer s) throws IOException {
+                TokenBuffer buf = new TokenBuffer(s.retain_source(), s.names(), s.lines());
+                Token.Lexeme type;
+                do {
+                        type = s.lex_next();
+                        buf.add(type, s.begin(), s.end() - s.begin(), s.name_id());
+                } while (type != Token.Lexeme.EOF);
+                return buf;
+        }
+
+        private void add(Token.Lexeme type, int begin, int len, int name) {
+                if (m_size == m_lexeme.length) {
+                        int cap = m_size*2;
+                        m_lexeme = Arrays.copyOf(m_lexeme, cap);
+                        m_begin = Arrays.copyOf(m_begin, cap);
+                        m_len = Arrays.copyOf(m_len, cap);
+                        m_name = Arrays.copyOf(m_name, cap);
+                }
+                m_lexeme[m_size] = type.ordinal();
+                m_begin[m_size] = begin;
+                m_len[m_size] = len;
+                m_name[m_size] = name;
+                m_size++;
+        }
+
+        /**
+         * @return number of tokens, including the trailing EOF.
+         */
+        public int size() {
+                return m_size;
+        }
+
+        public Token.Lexeme type(int i) {
+                return LEXEMES[m_lexeme[i]];
+        }
+
+        /**
+         * @param i token index.
+         * @return absolute source offset of the token.
+         */
+        public int begin(int i) {
+                return m_begin[i];
+        }
+
+        public int length(int i) {
+                return m_len[i];
+        }
+
+        /**
+         * @param i token index.
+         * @return location of the token, resolved from the line index.
+         */
+        public FilePointer file_pointer(int i) {
+                return m_lines.file_pointer(m_begin[i]);
+        }
+
+        /**
+         * @param i token index.
+         * @return id of the token if it is an identifier, NameTable.NONE otherwise.
+         */
+        public int name_id(int i) {
+                return m_name[i];
+        }
+
+        /**
+         * @return the pool identifiers are interned into.
+         */
+        public NameTable names() {
+                return m_names;
+        }
+
+        public String attribute(int i) throws IOException {
+                if (m_name[i] != NameTable.NONE) {
+                        return m_names.name(m_name[i]);
+                }
+                return BufferedScanner.attribute(m_src, type(i), m_begin[i], m_begin[i] + m_len[i]);
+        }
+
+        /**
+         * Materialize a token.
+         * @param i token index.
+         * @param fp location of the token, as returned by file_pointer(i).
+         * @return the token.
+         * @throws IOException
+         */
+        public Token token(int i, FilePointer fp) throws IOException {
+                return new Token(type(i), fp, attribute(i), m_name[i]);
+        }
+
+        public Token token(int i) throws IOException {
+                return token(i, file_pointer(i));
+        }
+}
@@ -0,0 +1,55 @@
+/*
+ * Copyright (C) 2017 davis
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package crux;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Arrays;
+
+/**
+ * Print a tree a line per node straight to a Writer, indented two spaces per level
+ * as the tst_parser and tst_ast expectations are. Indentation is written from one
+ * cached run of spaces.
+ * @author davis
+ */
+class TreePrinter {
+
+        private final Writer    m_out;
+        private char[]          m_indent = new char[64];
+
+        TreePrinter(Writer out) {
+                m_out = out;
+                Arrays.fill(m_indent, ' ');
+        }
+
+        /**
+         * @param depth depth of the node.
+         * @param node the formatted node.
+         * @throws IOException
+         */
+        void line(int depth, String node) throws IOException {
+                int n = 2*depth;
+                if (n > m_indent.length) {
+                        m_indent = new char[Math.max(n, m_indent.length*2)];
+                        Arrays.fill(m_indent, ' ');
+                }
+                m_out.write(m_indent, 0, n);
+                m_out.write(node);
+                m_out.write('\n');
+        }
+}
@@ -21,16 +21,49 @@ package crux;
  * @author davis
  */
 public class TypeError extends CompilingError {
+
+        private static final long serialVersionUID = 1L;
+
+        private final transient FilePointer m_fp;
+        // Error type whose message this reports, formatted only when printed.
+        private final transient IType       m_type;
         
         public TypeError(FilePointer fp, String err) {
                 super("TypeError" + "(" + (fp.line_no() + 1) + "," + fp.column() + ")[" + err + "]");
+                m_fp = null;
+                m_type = null;
         }
         
         public TypeError(String err) {
                 super(err);
+                m_fp = null;
+                m_type = null;
+        }
+
+        /**
+         * @param fp where the error is.
+         * @param err error type returned by a failed operation or check.
+         */
+        public TypeError(FilePointer fp, IType err) {
+                super(null);
+                m_fp = fp;
+                m_type = err;
         }
         
         public String get_msg() {
-                return m_error;
+                return m_type == null ? m_error : m_type.error_msg();
+        }
+
+        @Override
+        public String getMessage() {
+                return toString();
+        }
+
+        @Override
+        public String toString() {
+                if (m_type == null) {
+                        return m_error;
+                }
+                return "TypeError" + "(" + (m_fp.line_no() + 1) + "," + m_fp.column() + ")[" + m_type.error_msg() + "]";
         }
 }
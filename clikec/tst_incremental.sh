@@ -0,0 +1,28 @@
+#!/bin/bash
+
+bin=dist/clikec.jar
+
+i=0
+for file in tst_incremental/*.crx
+do
+        echo "proccessing $file"
+        let i=i+1;
+        java -jar $bin -ast -edits="${file%.crx}.edits" $file > "tst_$i.tmp"
+        java -jar $bin -ast "${file%.crx}.edited" > "tst_$i.ref"
+done
+
+i=0
+for file in tst_incremental/*.crx
+do
+        echo "comparing $file"
+        let i=i+1;
+        diff "tst_$i.ref" "tst_$i.tmp"
+done
+
+i=0
+for file in *.tmp
+do
+        let i=i+1;
+        echo "removing tst_$i.tmp"
+        rm "tst_$i.tmp" "tst_$i.ref"
+done